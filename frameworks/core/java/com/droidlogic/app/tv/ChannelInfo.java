@@ -65,6 +65,19 @@ public class ChannelInfo {
         TvContract.Channels.COLUMN_SERVICE_ID
     };
 
+    // enough for channel list views, without internal provider data
+    public static final String[] LIST_PROJECTION = {
+        Channels._ID,
+        Channels.COLUMN_INPUT_ID,
+        Channels.COLUMN_TYPE,
+        Channels.COLUMN_SERVICE_TYPE,
+        Channels.COLUMN_SERVICE_ID,
+        Channels.COLUMN_DISPLAY_NUMBER,
+        Channels.COLUMN_DISPLAY_NAME,
+        Channels.COLUMN_BROWSABLE,
+        TvContract.Channels.COLUMN_LOCKED
+    };
+
     public static final String KEY_DISPLAY_NUMBER = "display_number";
 
     public static final String KEY_TYPE = "type";
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.util.ArrayList;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Streams ContentProviderOperations to a provider in chunks bounded by the
+ * estimated parcel size and the operation count, so a large scan never hits
+ * TransactionTooLargeException. A chunk that fails is split in halves and
+ * retried, down to single operations, so one bad row only loses itself.
+ * Relies on the provider applying a batch in one transaction, as TvProvider
+ * does, so a failed chunk left nothing behind. Not thread safe.
+ */
+public final class TvBatchApplier {
+    private static final String TAG = "TvBatchApplier";
+
+    // the binder buffer is 1MB for the whole process, leave room for other calls and the results
+    public static final int DEFAULT_MAX_CHUNK_BYTES = 256 * 1024;
+    public static final int DEFAULT_MAX_CHUNK_OPERATIONS = 500;
+    // parcel header of an operation without uri and values
+    private static final int OPERATION_OVERHEAD = 64;
+
+    public interface ProgressListener {
+        /**
+         * Called on the applying thread after each chunk.
+         * @param applied operations committed so far
+         * @param failed operations given up so far
+         */
+        void onProgress(int applied, int failed);
+    }
+
+    private final ContentResolver mContentResolver;
+    private final String mAuthority;
+    private final ProgressListener mListener;
+    private int mMaxChunkBytes = DEFAULT_MAX_CHUNK_BYTES;
+    private int mMaxChunkOperations = DEFAULT_MAX_CHUNK_OPERATIONS;
+
+    private final ArrayList<ContentProviderOperation> mChunk = new ArrayList<ContentProviderOperation>();
+    private int mChunkBytes = 0;
+    private int mApplied = 0;
+    private int mFailed = 0;
+    private int mChunkCount = 0;
+
+    /**
+     * @param listener may be null
+     */
+    public TvBatchApplier(ContentResolver resolver, String authority, ProgressListener listener) {
+        mContentResolver = resolver;
+        mAuthority = authority;
+        mListener = listener;
+    }
+
+    public void setChunkLimits(int maxBytes, int maxOperations) {
+        mMaxChunkBytes = Math.max(maxBytes, 1);
+        mMaxChunkOperations = Math.max(maxOperations, 1);
+    }
+
+    public static int estimateSize(Uri uri, ContentValues values) {
+        int size = OPERATION_OVERHEAD + uri.toString().length() * 2;
+        if (values != null) {
+            for (String key : values.keySet()) {
+                size += 16 + key.length() * 2;
+                Object value = values.get(key);
+                if (value instanceof String) {
+                    size += ((String) value).length() * 2;
+                } else if (value instanceof byte[]) {
+                    size += ((byte[]) value).length;
+                } else {
+                    size += 8;
+                }
+            }
+        }
+        return size;
+    }
+
+    public void insert(Uri uri, ContentValues values) {
+        add(ContentProviderOperation.newInsert(uri).withValues(values).build(), estimateSize(uri, values));
+    }
+
+    public void update(Uri uri, ContentValues values) {
+        add(ContentProviderOperation.newUpdate(uri).withValues(values).build(), estimateSize(uri, values));
+    }
+
+    /**
+     * Queue an operation, the pending chunk is applied first if the operation does not fit.
+     */
+    public void add(ContentProviderOperation operation, int estimatedBytes) {
+        if (!mChunk.isEmpty() && (mChunkBytes + estimatedBytes > mMaxChunkBytes
+                || mChunk.size() >= mMaxChunkOperations)) {
+            flush();
+        }
+        mChunk.add(operation);
+        mChunkBytes += estimatedBytes;
+    }
+
+    /**
+     * Apply the pending chunk.
+     */
+    public void flush() {
+        if (mChunk.isEmpty()) {
+            return;
+        }
+        ArrayList<ContentProviderOperation> chunk = new ArrayList<ContentProviderOperation>(mChunk);
+        mChunk.clear();
+        mChunkBytes = 0;
+        mChunkCount++;
+        applyChunk(chunk);
+        if (mListener != null) {
+            mListener.onProgress(mApplied, mFailed);
+        }
+    }
+
+    private void applyChunk(ArrayList<ContentProviderOperation> chunk) {
+        try {
+            mContentResolver.applyBatch(mAuthority, chunk);
+            mApplied += chunk.size();
+            return;
+        } catch (Exception e) {
+            if (chunk.size() == 1) {
+                Log.e(TAG, "drop " + chunk.get(0).getUri() + ":" + e);
+                mFailed++;
+                return;
+            }
+            Log.w(TAG, "chunk of " + chunk.size() + " failed, splitting:" + e);
+        }
+        int half = chunk.size() / 2;
+        applyChunk(new ArrayList<ContentProviderOperation>(chunk.subList(0, half)));
+        applyChunk(new ArrayList<ContentProviderOperation>(chunk.subList(half, chunk.size())));
+    }
+
+    /**
+     * Apply what is pending.
+     * @return number of operations that could not be applied
+     */
+    public int finish() {
+        flush();
+        return mFailed;
+    }
+
+    public int getAppliedCount() {
+        return mApplied;
+    }
+
+    public int getFailedCount() {
+        return mFailed;
+    }
+
+    public int getChunkCount() {
+        return mChunkCount;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.os.SystemClock;
+
+import vendor.amlogic.hardware.tvserver.V1_0.ITvServer;
+
+/**
+ * Per-method statistics of the calls TvControlManager makes to tvserver.
+ * An ITvServer wrapped by wrap() records count, errors and latency of every
+ * call; request() is further split by resource name. Latencies go into
+ * power-of-two microsecond buckets, so recording is a few atomic adds.
+ * TvControlManager reports through lockRequested() when a thread starts to
+ * enter a domain lock; the next call made while holding that lock is charged
+ * the time in between as lock wait. With nested locks the innermost one
+ * counts. Nothing is recorded unless a wrapped proxy is in use.
+ */
+class TvCallMetrics {
+    // bucket i holds latencies in [2^(i-1), 2^i) us, the last one everything above
+    private static final int BUCKET_COUNT = 25;
+
+    static final class Stats {
+        final String name;
+        final AtomicLong count = new AtomicLong(0);
+        final AtomicLong errors = new AtomicLong(0);
+        final AtomicLong totalNanos = new AtomicLong(0);
+        final AtomicLong maxNanos = new AtomicLong(0);
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        final AtomicLong lockWaits = new AtomicLong(0);
+        final AtomicLong lockWaitNanos = new AtomicLong(0);
+        final AtomicLong maxLockWaitNanos = new AtomicLong(0);
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos, boolean failed) {
+            count.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+            long micros = nanos / 1000;
+            int bucket = (micros == 0) ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            buckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+        }
+
+        void recordLockWait(long nanos) {
+            lockWaits.incrementAndGet();
+            lockWaitNanos.addAndGet(nanos);
+            long max = maxLockWaitNanos.get();
+            while (nanos > max && !maxLockWaitNanos.compareAndSet(max, nanos)) {
+                max = maxLockWaitNanos.get();
+            }
+        }
+
+        /**
+         * @return upper bound in us of the bucket holding the given percentile
+         */
+        long percentileMicros(int percentile) {
+            long total = 0;
+            long[] snapshot = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (total * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKET_COUNT - 1);
+        }
+    }
+
+    // the domain lock the thread last started to enter and when
+    private static final class LockStamp {
+        Object lock;
+        long time;
+    }
+
+    private final ConcurrentHashMap<String, Stats> mStats = new ConcurrentHashMap<String, Stats>();
+    private final ThreadLocal<LockStamp> mLockStamp = new ThreadLocal<LockStamp>() {
+        @Override
+        protected LockStamp initialValue() {
+            return new LockStamp();
+        }
+    };
+    private volatile long mStartTime = SystemClock.elapsedRealtime();
+
+    private Stats statsOf(String name) {
+        Stats stats = mStats.get(name);
+        if (stats == null) {
+            Stats created = new Stats(name);
+            stats = mStats.putIfAbsent(name, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    public void record(String name, long nanos, boolean failed) {
+        statsOf(name).record(nanos, failed);
+    }
+
+    /**
+     * Called right before the calling thread enters lock.
+     */
+    public void lockRequested(Object lock) {
+        LockStamp stamp = mLockStamp.get();
+        stamp.lock = lock;
+        stamp.time = System.nanoTime();
+    }
+
+    // time since the thread asked for the lock it holds now, -1 if not known
+    private long takeLockWait(long now) {
+        LockStamp stamp = mLockStamp.get();
+        if (stamp.lock == null) {
+            return -1;
+        }
+        // a stamp left by a block that made no call does not count for a later call
+        long wait = Thread.holdsLock(stamp.lock) ? now - stamp.time : -1;
+        stamp.lock = null;
+        return wait;
+    }
+
+    public ITvServer wrap(final ITvServer server) {
+        return (ITvServer) Proxy.newProxyInstance(ITvServer.class.getClassLoader(),
+                new Class<?>[] {ITvServer.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(server, args);
+                        }
+                        String name = method.getName();
+                        if ("request".equals(name) && args != null && args.length > 0) {
+                            name = "request:" + args[0];
+                        }
+                        boolean failed = false;
+                        long start = System.nanoTime();
+                        long lockWait = takeLockWait(start);
+                        if (lockWait >= 0) {
+                            statsOf(name).recordLockWait(lockWait);
+                        }
+                        try {
+                            return method.invoke(server, args);
+                        } catch (InvocationTargetException e) {
+                            failed = true;
+                            throw e.getCause();
+                        } finally {
+                            record(name, System.nanoTime() - start, failed);
+                        }
+                    }
+                });
+    }
+
+    public void reset() {
+        mStats.clear();
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    public void dump(PrintWriter pw) {
+        List<Stats> list = new ArrayList<Stats>(mStats.values());
+        Collections.sort(list, (a, b) -> Long.compare(b.totalNanos.get(), a.totalNanos.get()));
+        pw.println("tvserver call metrics, " + (SystemClock.elapsedRealtime() - mStartTime) / 1000
+                + "s, sorted by total time (us):");
+        pw.println(String.format("  %-40s %8s %6s %10s %8s %8s %8s %8s %9s %9s",
+                "method", "count", "err", "total", "avg", "p50<=", "p99<=", "max", "lockavg", "lockmax"));
+        for (Stats s : list) {
+            long count = s.count.get();
+            long total = s.totalNanos.get() / 1000;
+            long waits = s.lockWaits.get();
+            pw.println(String.format("  %-40s %8d %6d %10d %8d %8d %8d %8d %9d %9d",
+                    s.name, count, s.errors.get(), total, (count == 0) ? 0 : total / count,
+                    s.percentileMicros(50), s.percentileMicros(99), s.maxNanos.get() / 1000,
+                    (waits == 0) ? 0 : s.lockWaitNanos.get() / 1000 / waits,
+                    s.maxLockWaitNanos.get() / 1000));
+        }
+        pw.flush();
+    }
+}
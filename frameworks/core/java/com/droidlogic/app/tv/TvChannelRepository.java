@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.media.tv.TvContract;
+import android.media.tv.TvContract.Channels;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Shared in-memory copy of the channels of one input, loaded from TvProvider
+ * once and indexed by id, LCN, display number and (onid, tsid, sid), plus a
+ * list sorted by frequency. Channel change notifications only mark the
+ * affected rows; they are re-read one by one at the next lookup, a change
+ * without a channel id or more than MAX_PENDING_IDS changed rows reload
+ * everything. A row this process reported through notifyLocalChange is
+ * marked like any other; its provider notification marks it again, which
+ * only costs a read if the row was re-read in between.
+ * The returned ChannelInfo objects are shared and must not be modified, read
+ * a copy with TvDataBaseManager.getChannelInfo to change a channel.
+ */
+public class TvChannelRepository {
+    private static final String TAG = "TvChannelRepository";
+
+    // above this many changed rows one full load is cheaper than a query per row
+    static final int MAX_PENDING_IDS = 32;
+
+    private static final HashMap<String, TvChannelRepository> mRepositories = new HashMap<String, TvChannelRepository>();
+
+    private final ContentResolver mContentResolver;
+    private final String mInputId;
+
+    private final ArrayList<ChannelInfo> mChannels = new ArrayList<ChannelInfo>();
+    private final HashMap<Long, ChannelInfo> mById = new HashMap<Long, ChannelInfo>();
+    private final HashMap<Integer, ChannelInfo> mByLcn = new HashMap<Integer, ChannelInfo>();
+    private final HashMap<String, ChannelInfo> mByDisplayNumber = new HashMap<String, ChannelInfo>();
+    private final HashMap<Long, ChannelInfo> mByTriplet = new HashMap<Long, ChannelInfo>();
+    private final HashMap<Long, IndexKeys> mKeys = new HashMap<Long, IndexKeys>();
+    // rebuilt on demand after changes
+    private ArrayList<ChannelInfo> mByFrequency = null;
+
+    private boolean mLoaded = false;
+    // a local change and its provider notification merge here if no lookup runs between them
+    private final HashSet<Long> mPendingIds = new HashSet<Long>();
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            long id = (uri == null) ? -1 : DroidLogicTvUtils.getChannelId(uri);
+            if (id >= 0) {
+                invalidate(id);
+            } else if (uri == null || DroidLogicTvUtils.matchsWhich(uri) != DroidLogicTvUtils.MATCH_CHANNEL_ID_LOGO) {
+                invalidate();
+            }
+        }
+    };
+
+    private static final Comparator<ChannelInfo> FREQUENCY_ORDER = new Comparator<ChannelInfo>() {
+        @Override
+        public int compare(ChannelInfo a, ChannelInfo b) {
+            return Integer.compare(a.getFrequency(), b.getFrequency());
+        }
+    };
+
+    private TvChannelRepository(Context context, String inputId) {
+        mContentResolver = context.getApplicationContext().getContentResolver();
+        mInputId = inputId;
+        mContentResolver.registerContentObserver(Channels.CONTENT_URI, true, mObserver);
+    }
+
+    public static TvChannelRepository getInstance(Context context, String inputId) {
+        synchronized (mRepositories) {
+            TvChannelRepository repository = mRepositories.get(inputId);
+            if (repository == null) {
+                repository = new TvChannelRepository(context, inputId);
+                mRepositories.put(inputId, repository);
+            }
+            return repository;
+        }
+    }
+
+    /**
+     * Tell the repositories about a channel written by this process, so the next
+     * lookup sees it without waiting for the provider notification.
+     * @param channelUri uri of the channel, null if the rows are not known
+     */
+    static void notifyLocalChange(Uri channelUri) {
+        long id = (channelUri == null) ? -1 : DroidLogicTvUtils.getChannelId(channelUri);
+        synchronized (mRepositories) {
+            for (TvChannelRepository repository : mRepositories.values()) {
+                if (id >= 0) {
+                    repository.invalidate(id);
+                } else {
+                    repository.invalidate();
+                }
+            }
+        }
+    }
+
+    public String getInputId() {
+        return mInputId;
+    }
+
+    /**
+     * Reload everything at the next lookup.
+     */
+    public synchronized void invalidate() {
+        mLoaded = false;
+        mPendingIds.clear();
+    }
+
+    /**
+     * Re-read one channel at the next lookup.
+     */
+    public synchronized void invalidate(long id) {
+        if (!mLoaded) {
+            return;
+        }
+        mPendingIds.add(id);
+        if (mPendingIds.size() > MAX_PENDING_IDS) {
+            mLoaded = false;
+            mPendingIds.clear();
+        }
+    }
+
+    private void refreshLocked() {
+        if (!mLoaded) {
+            loadAllLocked();
+        } else if (!mPendingIds.isEmpty()) {
+            for (Long id : mPendingIds) {
+                reloadLocked(id);
+            }
+            mPendingIds.clear();
+        }
+    }
+
+    private void loadAllLocked() {
+        mChannels.clear();
+        mById.clear();
+        mByLcn.clear();
+        mByDisplayNumber.clear();
+        mByTriplet.clear();
+        mKeys.clear();
+        mByFrequency = null;
+        Cursor cursor = null;
+        try {
+            cursor = mContentResolver.query(TvContract.buildChannelsUriForInput(mInputId),
+                    ChannelInfo.COMMON_PROJECTION, null, null, Channels._ID);
+            while (cursor != null && cursor.moveToNext()) {
+                ChannelInfo channel = ChannelInfo.fromCommonCursor(cursor);
+                if (channel != null) {
+                    addLocked(channel);
+                }
+            }
+            mLoaded = true;
+        } catch (Exception e) {
+            Log.e(TAG, "loadAll:" + e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private void reloadLocked(long id) {
+        ChannelInfo channel = null;
+        Cursor cursor = null;
+        try {
+            cursor = mContentResolver.query(TvContract.buildChannelUri(id),
+                    ChannelInfo.COMMON_PROJECTION, null, null, null);
+            if (cursor != null && cursor.moveToNext()) {
+                channel = ChannelInfo.fromCommonCursor(cursor);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "reload:" + e);
+            mLoaded = false;
+            return;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        if (channel != null && !mInputId.equals(channel.getInputId())) {
+            channel = null;
+        }
+        ChannelInfo old = mById.get(id);
+        if (old != null && channel != null && new IndexKeys(channel).equals(mKeys.get(id))) {
+            replaceLocked(old, channel);
+            return;
+        }
+        if (old != null) {
+            removeLocked(old);
+        }
+        if (channel != null) {
+            addLocked(channel);
+        }
+    }
+
+    private static long tripletKey(int originalNetworkId, int transportStreamId, int serviceId) {
+        return ((originalNetworkId & 0xffffL) << 48) | ((transportStreamId & 0xffffL) << 32)
+                | (serviceId & 0xffffffffL);
+    }
+
+    // the keys a channel was indexed with, the object itself may be changed later
+    private static final class IndexKeys {
+        final int lcn;
+        final String displayNumber;
+        final long triplet;
+
+        IndexKeys(ChannelInfo channel) {
+            lcn = channel.getLCN();
+            displayNumber = channel.getDisplayNumber();
+            triplet = tripletKey(channel.getOriginalNetworkId(), channel.getTransportStreamId(),
+                    channel.getServiceId());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof IndexKeys)) {
+                return false;
+            }
+            IndexKeys k = (IndexKeys) o;
+            return lcn == k.lcn && triplet == k.triplet
+                    && (displayNumber == null ? k.displayNumber == null : displayNumber.equals(k.displayNumber));
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (triplet ^ (triplet >>> 32)) * 31 + lcn;
+        }
+    }
+
+    private void addLocked(ChannelInfo channel) {
+        IndexKeys keys = new IndexKeys(channel);
+        mChannels.add(channel);
+        mById.put(channel.getId(), channel);
+        mKeys.put(channel.getId(), keys);
+        indexLocked(channel, keys);
+        mByFrequency = null;
+    }
+
+    private void indexLocked(ChannelInfo channel, IndexKeys keys) {
+        // on duplicate keys the first channel wins, as with a provider query
+        if (keys.lcn >= 0 && !mByLcn.containsKey(keys.lcn)) {
+            mByLcn.put(keys.lcn, channel);
+        }
+        if (keys.displayNumber != null && !mByDisplayNumber.containsKey(keys.displayNumber)) {
+            mByDisplayNumber.put(keys.displayNumber, channel);
+        }
+        if (!mByTriplet.containsKey(keys.triplet)) {
+            mByTriplet.put(keys.triplet, channel);
+        }
+    }
+
+    // an update that keeps the keys, the new object takes over the old one's entries
+    private void replaceLocked(ChannelInfo old, ChannelInfo channel) {
+        IndexKeys keys = mKeys.get(channel.getId());
+        mChannels.set(mChannels.indexOf(old), channel);
+        mById.put(channel.getId(), channel);
+        if (mByLcn.get(keys.lcn) == old) {
+            mByLcn.put(keys.lcn, channel);
+        }
+        if (keys.displayNumber != null && mByDisplayNumber.get(keys.displayNumber) == old) {
+            mByDisplayNumber.put(keys.displayNumber, channel);
+        }
+        if (mByTriplet.get(keys.triplet) == old) {
+            mByTriplet.put(keys.triplet, channel);
+        }
+        mByFrequency = null;
+    }
+
+    private void removeLocked(ChannelInfo channel) {
+        IndexKeys keys = mKeys.remove(channel.getId());
+        mChannels.remove(channel);
+        mById.remove(channel.getId());
+        boolean removed = false;
+        if (mByLcn.get(keys.lcn) == channel) {
+            mByLcn.remove(keys.lcn);
+            removed = true;
+        }
+        if (keys.displayNumber != null && mByDisplayNumber.get(keys.displayNumber) == channel) {
+            mByDisplayNumber.remove(keys.displayNumber);
+            removed = true;
+        }
+        if (mByTriplet.get(keys.triplet) == channel) {
+            mByTriplet.remove(keys.triplet);
+            removed = true;
+        }
+        if (removed) {
+            // let a channel sharing a key take over the index entry
+            for (ChannelInfo c : mChannels) {
+                indexLocked(c, mKeys.get(c.getId()));
+            }
+        }
+        mByFrequency = null;
+    }
+
+    /**
+     * @return all channels of the input, ordered by id
+     */
+    public synchronized ArrayList<ChannelInfo> getChannels() {
+        refreshLocked();
+        ArrayList<ChannelInfo> channels = new ArrayList<ChannelInfo>(mChannels);
+        Collections.sort(channels, new Comparator<ChannelInfo>() {
+            @Override
+            public int compare(ChannelInfo a, ChannelInfo b) {
+                return Long.compare(a.getId(), b.getId());
+            }
+        });
+        return channels;
+    }
+
+    public synchronized int getCount() {
+        refreshLocked();
+        return mChannels.size();
+    }
+
+    public synchronized ChannelInfo getChannel(long id) {
+        refreshLocked();
+        return mById.get(id);
+    }
+
+    public synchronized ChannelInfo getChannelByLcn(int lcn) {
+        refreshLocked();
+        return mByLcn.get(lcn);
+    }
+
+    public synchronized ChannelInfo getChannelByDisplayNumber(String displayNumber) {
+        refreshLocked();
+        return mByDisplayNumber.get(displayNumber);
+    }
+
+    public synchronized ChannelInfo getChannel(int originalNetworkId, int transportStreamId, int serviceId) {
+        refreshLocked();
+        return mByTriplet.get(tripletKey(originalNetworkId, transportStreamId, serviceId));
+    }
+
+    private ArrayList<ChannelInfo> byFrequencyLocked() {
+        if (mByFrequency == null) {
+            mByFrequency = new ArrayList<ChannelInfo>(mChannels);
+            Collections.sort(mByFrequency, FREQUENCY_ORDER);
+        }
+        return mByFrequency;
+    }
+
+    /**
+     * @return all channels of the input, ordered by frequency
+     */
+    public synchronized ArrayList<ChannelInfo> getChannelsByFrequency() {
+        refreshLocked();
+        return new ArrayList<ChannelInfo>(byFrequencyLocked());
+    }
+
+    /**
+     * @return the channels on the given frequency
+     */
+    public synchronized ArrayList<ChannelInfo> getChannelsByFrequency(int frequency) {
+        refreshLocked();
+        ArrayList<ChannelInfo> sorted = byFrequencyLocked();
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted.get(mid).getFrequency() < frequency) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        ArrayList<ChannelInfo> channels = new ArrayList<ChannelInfo>();
+        for (int i = low; i < sorted.size() && sorted.get(i).getFrequency() == frequency; i++) {
+            channels.add(sorted.get(i));
+        }
+        return channels;
+    }
+}
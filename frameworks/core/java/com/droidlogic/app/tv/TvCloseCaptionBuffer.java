@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer/single-consumer ring of closed caption packets.
+ * The tvserver event thread writes packets into preallocated slots and the
+ * caption decoder drains them in bulk. A full ring drops the new packet and
+ * counts it as an overflow instead of overwriting data still being read.
+ */
+public class TvCloseCaptionBuffer {
+    public static final int DATA_SIZE = 512;
+    public static final int CMD_SIZE  = 128;
+    private static final int DEFAULT_CAPACITY = 32;
+
+    public static class Packet {
+        // elapsedRealtimeNanos when the packet was received
+        public long timestamp;
+        public int dataLength;
+        public int cmdLength;
+        // same layout as CloseCaptionListener: the last element holds the length
+        public final int data[] = new int[DATA_SIZE];
+        public final int cmd[] = new int[CMD_SIZE];
+    }
+
+    public interface PacketConsumer {
+        /**
+         * The packet is only valid during this call.
+         */
+        void onPacket(Packet packet);
+    }
+
+    private final Packet[] mSlots;
+    private final int mMask;
+    // next slot to write, only advanced by the producer
+    private final AtomicLong mHead = new AtomicLong(0);
+    // next slot to read, only advanced by the consumer
+    private final AtomicLong mTail = new AtomicLong(0);
+    private final AtomicLong mPacketCount = new AtomicLong(0);
+    private final AtomicLong mOverflowCount = new AtomicLong(0);
+    private final Object mConsumerLock = new Object();
+
+    public TvCloseCaptionBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of packets, rounded up to a power of two
+     */
+    public TvCloseCaptionBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mSlots = new Packet[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new Packet();
+        }
+        mMask = size - 1;
+    }
+
+    /**
+     * Producer side: get the next free slot, or null if the ring is full.
+     */
+    Packet beginWrite() {
+        long head = mHead.get();
+        if (head - mTail.get() >= mSlots.length) {
+            mOverflowCount.incrementAndGet();
+            return null;
+        }
+        return mSlots[(int) (head & mMask)];
+    }
+
+    /**
+     * Producer side: publish the slot returned by beginWrite().
+     */
+    void endWrite() {
+        mPacketCount.incrementAndGet();
+        mHead.lazySet(mHead.get() + 1);
+    }
+
+    /**
+     * Consumer side: hand up to maxCount queued packets to the consumer in order.
+     * @return number of packets drained
+     */
+    public int drain(PacketConsumer consumer, int maxCount) {
+        synchronized (mConsumerLock) {
+            long tail = mTail.get();
+            int count = (int) Math.min(mHead.get() - tail, (long) maxCount);
+            for (int i = 0; i < count; i++) {
+                consumer.onPacket(mSlots[(int) ((tail + i) & mMask)]);
+            }
+            mTail.lazySet(tail + count);
+            return count;
+        }
+    }
+
+    /**
+     * Consumer side: drop every queued packet.
+     */
+    public void clear() {
+        synchronized (mConsumerLock) {
+            mTail.lazySet(mHead.get());
+        }
+    }
+
+    public int available() {
+        return (int) (mHead.get() - mTail.get());
+    }
+
+    public int capacity() {
+        return mSlots.length;
+    }
+
+    public long getPacketCount() {
+        return mPacketCount.get();
+    }
+
+    public long getOverflowCount() {
+        return mOverflowCount.get();
+    }
+}
@@ -19,6 +19,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -32,6 +34,10 @@ import java.util.StringTokenizer;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
 import android.graphics.ImageFormat;
@@ -40,12 +46,14 @@ import android.graphics.Matrix;
 import android.media.tv.TvContract;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.HwBinder;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Parcel;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.text.TextUtils;
 
@@ -80,6 +88,7 @@ import vendor.amlogic.hardware.tvserver.V1_0.BasicVdecState;
 
 public class TvControlManager {
     private static final String TAG = "TvControlManager";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
     private static final String OPEN_TV_LOG_FLG = "open.libtv.log.flg";
     private boolean tvLogFlg =false;
 
@@ -180,6 +189,7 @@ public class TvControlManager {
 
     private long mNativeContext; // accessed by native methods
     private EventHandler mEventHandler;
+    private TvEventDispatcher mEventDispatcher;
     private ArrayList<TvInSignalInfo.SigInfoChangeListener> mSigInfoChangeListener;
     private TvInSignalInfo.SigChannelSearchListener mSigChanSearchListener = null;
     private Status3DChangeListener mStatus3DChangeListener = null;
@@ -188,6 +198,8 @@ public class TvControlManager {
     private ChannelSelectListener mChannelSelectListener = null;
     private SerialCommunicationListener mSerialCommunicationListener = null;
     private CloseCaptionListener mCloseCaptionListener = null;
+    private final TvCloseCaptionBuffer mCloseCaptionBuffer = new TvCloseCaptionBuffer();
+    private volatile boolean mCloseCaptionBufferEnabled = false;
     private ArrayList<StatusSourceConnectListener> mSourceConnectChangeListener;
     private HDMIRxCECListener mHDMIRxCECListener = null;
     private UpgradeFBCListener mUpgradeFBCListener  = null;
@@ -208,7 +220,62 @@ public class TvControlManager {
     public static  int EVENT_RRT_SCAN_END            = 3;
 
     private EasManager easManager = new EasManager();
-    private static TvControlManager mInstance;
+    private static volatile TvControlManager mInstance;
+    private static final CountDownLatch mInstanceLatch = new CountDownLatch(1);
+    private static final AtomicBoolean mPrewarmStarted = new AtomicBoolean(false);
+    // counted down once tvserver is connected for the first time
+    private final CountDownLatch mConnectedLatch = new CountDownLatch(1);
+
+    private final TvSettingsCache mAudioSettingsCache = new TvSettingsCache();
+    private final TvSettingsCache mPictureSettingsCache = new TvSettingsCache();
+    // settings cache keys, only for getters served by the HIDL proxy
+    private static final int CACHE_KEY_AUDIO_OUTMODE = 0;
+    private static final int CACHE_KEY_HDMI_COLOR_RANGE_MODE = 1;
+    private static final int CACHE_KEY_VRR_ENABLE = 2;
+    private static final int CACHE_KEY_BLACKOUT_ENABLE = 3;
+    private final Object mCountryCapabilitiesLock = new Object();
+    // lazily created helpers, each guarded by its own lock
+    private final Object mSliderLock = new Object();
+    private TvSliderWriter mSliderWriter = null;
+    private final Object mSignalSamplerLock = new Object();
+    private TvSignalSampler mSignalSampler = null;
+    private final Object mVdecHealthMonitorLock = new Object();
+    private TvVdecHealthMonitor mVdecHealthMonitor = null;
+    private final Object mEpgRangeQueryLock = new Object();
+    private TvEpgRangeQuery mEpgRangeQuery = null;
+
+    // guarded by mSsmLock, null while the mirror is disabled
+    private TvSsmMirror mSsmMirror = null;
+    private final TvSsmMirror.Backend mSsmBackend = new TvSsmMirror.Backend() {
+        @Override
+        public boolean read(int offset, byte[] buf, int bufOffset, int len) {
+            return ssmReadDirect(offset, buf, bufOffset, len);
+        }
+
+        @Override
+        public boolean write(int offset, byte[] buf, int bufOffset, int len) {
+            return ssmWriteDirect(offset, buf, bufOffset, len);
+        }
+    };
+    // delayed write back runs on its own thread, created with the first mirror
+    private HandlerThread mSsmFlushThread = null;
+    private Handler mSsmFlushHandler = null;
+    private boolean mSsmFlushPosted = false;
+    private final Runnable mSsmFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (timed(mSsmLock)) {
+                mSsmFlushPosted = false;
+                if (mSsmMirror == null || mSsmMirror.flush()) {
+                    return;
+                }
+                Log.w(TAG, "SSMFlush: failed, retry in " + SSM_FLUSH_RETRY_MS + "ms");
+                mSsmFlushPosted = true;
+                mSsmFlushHandler.postDelayed(mSsmFlushTask, SSM_FLUSH_RETRY_MS);
+            }
+        }
+    };
+    private volatile TvCountryCapabilities mCountryCapabilities = null;
 
     private int sendCmdToTv(Parcel p, Parcel r) {
         Log.i(TAG, "sendCmdToTv is abandoned in Android O, please use cmd HIDL way!!cmd:" + p.readInt());
@@ -322,122 +389,315 @@ public class TvControlManager {
         return ret;*/
     }
 
-    class EventHandler extends Handler {
-        int dataArray[];
-        int cmdArray[];
+    /**
+     * @Function: setSettingsCacheEnabled
+     * @Description: Serve GetAudioOutmode, GetHdmiColorRangeMode, GetVRREnable and
+     *               getBlackoutEnable from a write-through memory cache, updated by the
+     *               matching setters and dropped on audio events and tvserver death
+     * @Param: enable true to enable, false to disable and clear the cache
+     */
+    public void setSettingsCacheEnabled(boolean enable) {
+        mAudioSettingsCache.setEnabled(enable);
+        mPictureSettingsCache.setEnabled(enable);
+    }
+
+    public long getSettingsCacheHitCount() {
+        return mAudioSettingsCache.getHitCount() + mPictureSettingsCache.getHitCount();
+    }
+
+    public long getSettingsCacheMissCount() {
+        return mAudioSettingsCache.getMissCount() + mPictureSettingsCache.getMissCount();
+    }
+
+    /**
+     * @Function: getEventQueueDepth
+     * @Description: Number of tvserver events queued and not yet dispatched to listeners
+     */
+    public int getEventQueueDepth() {
+        return mEventDispatcher.getQueueDepth();
+    }
+
+    public int getEventPeakQueueDepth() {
+        return mEventDispatcher.getPeakQueueDepth();
+    }
+
+    public long getEventDispatchedCount() {
+        return mEventDispatcher.getDispatchedCount();
+    }
+
+    /**
+     * @Function: getEventDispatchLatencyUs
+     * @Description: Average time from an event arriving on the binder thread to its dispatch, in us
+     */
+    public long getEventDispatchLatencyUs() {
+        return mEventDispatcher.getAverageLatencyMicros();
+    }
+
+    public long getEventDispatchMaxLatencyUs() {
+        return mEventDispatcher.getMaxLatencyMicros();
+    }
+
+    /**
+     * @Function: setSignalEventCoalesceWindow
+     * @Description: Collapse SIGNAL_DETECT and SOURCE_CONNECT events of the same source
+     *               arriving within the window, only the latest one is delivered
+     * @Param: windowMs coalesce window in ms, 0 to deliver every event
+     */
+    public void setSignalEventCoalesceWindow(int windowMs) {
+        mEventDispatcher.setCoalesceWindow(windowMs);
+    }
+
+    public int getSignalEventCoalesceWindow() {
+        return mEventDispatcher.getCoalesceWindow();
+    }
+
+    /**
+     * @Function: getSuppressedSignalEventCount
+     * @Description: Number of signal and connect events dropped because a newer one replaced them
+     */
+    public long getSuppressedSignalEventCount() {
+        return mEventDispatcher.getSuppressedCount();
+    }
+
+    /**
+     * @Function: startEventRecording
+     * @Description: Record every tvserver callback parcel with its arrival time to a file,
+     *               replaces a recording already running
+     * @Param: path output file
+     * @Return: 0 success, -1 fail
+     */
+    public int startEventRecording(String path) {
+        TvEventRecorder recorder;
+        try {
+            recorder = new TvEventRecorder(new File(path));
+        } catch (IOException e) {
+            Log.e(TAG, "startEventRecording:" + e);
+            return -1;
+        }
+        TvEventRecorder old;
+        synchronized (timed(mLock)) {
+            old = mEventRecorder;
+            mEventRecorder = recorder;
+        }
+        if (old != null) {
+            old.close();
+        }
+        return 0;
+    }
+
+    /**
+     * @Function: stopEventRecording
+     * @Description: Stop the running recording and flush it to the file
+     * @Return: number of parcels recorded, -1 if no recording was running
+     */
+    public int stopEventRecording() {
+        TvEventRecorder recorder;
+        synchronized (timed(mLock)) {
+            recorder = mEventRecorder;
+            mEventRecorder = null;
+        }
+        if (recorder == null) {
+            return -1;
+        }
+        recorder.close();
+        return recorder.getCount();
+    }
+
+    /**
+     * @Function: replayEvents
+     * @Description: Feed a recording made by startEventRecording to the registered listeners
+     *               through the event dispatcher, blocks the calling thread until done
+     * @Param: path recording file, speed 1 for recorded timing, 10 for ten times faster,
+     *         0 for no delay between events
+     * @Return: number of parcels replayed, -1 fail
+     */
+    public int replayEvents(String path, float speed) {
+        try {
+            return TvEventRecorder.replay(new File(path), speed, new TvEventRecorder.ParcelSink() {
+                @Override
+                public void onParcel(TvHidlParcel parcel) {
+                    mEventDispatcher.enqueue(parcel);
+                }
+            });
+        } catch (IOException e) {
+            Log.e(TAG, "replayEvents:" + e);
+        }
+        return -1;
+    }
+
+    private int updateCachedSetting(TvSettingsCache cache, int key, int value, int ret) {
+        if (ret == 0) {
+            cache.put(key, value);
+        } else {
+            cache.remove(key);
+        }
+        return ret;
+    }
+
+    class EventHandler extends Handler implements TvEventDispatcher.EventSink {
         int msgPdu[];
 
         public EventHandler(Looper looper) {
             super(looper);
-            dataArray = new int[512];//max data buf
-            cmdArray = new int[128];
             msgPdu = new int[1200];
         }
 
+        // packet for the listener when the ring is disabled or full, dispatch looper only
+        private final TvCloseCaptionBuffer.Packet mCloseCaptionScratch = new TvCloseCaptionBuffer.Packet();
+
+        private void readCloseCaptionPacket(TvHidlParcel p, TvCloseCaptionBuffer.Packet packet) {
+            int dataCount = p.bodyInt.get(0);
+            int dataLen = Math.min(dataCount, packet.data.length - 1);
+            for (int i = 0; i < dataLen; i++) {
+                packet.data[i] = p.bodyInt.get(i + 1);
+            }
+            //data len write to end
+            packet.data[packet.data.length - 1] = dataLen;
+            int cmdCount = p.bodyInt.get(dataCount + 1);
+            int cmdLen = Math.min(cmdCount, packet.cmd.length - 1);
+            for (int i = 0; i < cmdLen; i++) {
+                packet.cmd[i] = p.bodyInt.get(i + dataCount + 2);
+            }
+            packet.cmd[packet.cmd.length - 1] = cmdLen;
+            packet.dataLength = dataLen;
+            packet.cmdLength = cmdLen;
+            packet.timestamp = SystemClock.elapsedRealtimeNanos();
+            if (DEBUG) Log.d(TAG, "cc data count =" + dataCount + ", cmd count =" + cmdCount);
+        }
+
+        // scan events are decoded on the dispatch looper only, so one scratch buffer is enough
+        private int mScanBody[] = new int[256];
+
+        private int[] unboxBody(TvHidlParcel p) {
+            int size = p.bodyInt.size();
+            if (mScanBody.length < size) {
+                mScanBody = new int[size];
+            }
+            for (int i = 0; i < size; i++) {
+                mScanBody[i] = p.bodyInt.get(i);
+            }
+            return mScanBody;
+        }
+
+        // always fresh, ChannelInfo keeps these arrays after a pooled event is recycled
+        private int[] newIntArray(int size) {
+            return (size == 0) ? null : new int[size];
+        }
+
+        private String[] newStringArray(int size) {
+            return (size == 0) ? null : new String[size];
+        }
+
         private void readScanEvent(ScannerEvent scan_ev, TvHidlParcel p) {
-            int i, j;
-            scan_ev.type = p.bodyInt.get(0);
-            Log.d(TAG, "scan ev type:"+ scan_ev.type);
-
-            scan_ev.percent = p.bodyInt.get(1);
-            scan_ev.totalcount = p.bodyInt.get(2);
-            scan_ev.lock = p.bodyInt.get(3);
-            scan_ev.cnum = p.bodyInt.get(4);
-            scan_ev.freq = p.bodyInt.get(5);
+            int i, j, pos;
+            int body[] = unboxBody(p);
+            scan_ev.type = body[0];
+            if (DEBUG) Log.d(TAG, "scan ev type:"+ scan_ev.type);
+
+            scan_ev.percent = body[1];
+            scan_ev.totalcount = body[2];
+            scan_ev.lock = body[3];
+            scan_ev.cnum = body[4];
+            scan_ev.freq = body[5];
             scan_ev.programName = p.bodyString.get(0);
-            scan_ev.srvType = p.bodyInt.get(6);
+            scan_ev.srvType = body[6];
             scan_ev.paras = p.bodyString.get(1);
-            scan_ev.strength = p.bodyInt.get(7);
-            scan_ev.quality = p.bodyInt.get(8);
-            scan_ev.videoStd = p.bodyInt.get(9);
-            scan_ev.audioStd = p.bodyInt.get(10);
-            scan_ev.isAutoStd = p.bodyInt.get(11);
-
-            scan_ev.mode = p.bodyInt.get(12);
-            scan_ev.sr = p.bodyInt.get(13);
-            scan_ev.mod = p.bodyInt.get(14);
-            scan_ev.bandwidth = p.bodyInt.get(15);
-            scan_ev.reserved = p.bodyInt.get(16);
-            scan_ev.ts_id = p.bodyInt.get(17);
-            scan_ev.orig_net_id = p.bodyInt.get(18);
-            scan_ev.serviceID = p.bodyInt.get(19);
-            scan_ev.vid = p.bodyInt.get(20);
-            scan_ev.vfmt = p.bodyInt.get(21);
-            int acnt = p.bodyInt.get(22);
-            if (acnt != 0) {
-                scan_ev.aids = new int[acnt];
-                for (i=0;i<acnt;i++)
-                    scan_ev.aids[i] = p.bodyInt.get(i+23);
-                scan_ev.afmts = new int[acnt];
-                for (i=0;i<acnt;i++)
-                    scan_ev.afmts[i] = p.bodyInt.get(i+acnt+23);
-                scan_ev.alangs = new String[acnt];
-                for (i=0;i<acnt;i++)
-                    scan_ev.alangs[i] = p.bodyString.get(i+2);
-                scan_ev.atypes = new int[acnt];
-                for (i=0;i<acnt;i++)
-                    scan_ev.atypes[i] = p.bodyInt.get(i+2*acnt+23);
-                scan_ev.aexts = new int[acnt];
-                for (i=0;i<acnt;i++)
-                    scan_ev.aexts[i] = p.bodyInt.get(i+3*acnt+23);
-            }
-            scan_ev.pcr = p.bodyInt.get(4*acnt+23);
-            int scnt = p.bodyInt.get(4*acnt+24);
-            if (scnt != 0) {
-                scan_ev.stypes = new int[scnt];
-                for (i=0;i<scnt;i++)
-                    scan_ev.stypes[i] = p.bodyInt.get(i+4*acnt+25);
-                scan_ev.sids = new int[scnt];
-                for (i=0;i<scnt;i++)
-                    scan_ev.sids[i] = p.bodyInt.get(i+scnt+4*acnt+25);
-                scan_ev.sstypes = new int[scnt];
-                for (i=0;i<scnt;i++)
-                    scan_ev.sstypes[i] = p.bodyInt.get(i+2*scnt+4*acnt+25);
-                scan_ev.sid1s = new int[scnt];
-                for (i=0;i<scnt;i++)
-                    scan_ev.sid1s[i] = p.bodyInt.get(i+3*scnt+4*acnt+25);
-                scan_ev.sid2s = new int[scnt];
-                for (i=0;i<scnt;i++)
-                    scan_ev.sid2s[i] = p.bodyInt.get(i+4*scnt+4*acnt+25);
-                scan_ev.slangs = new String[scnt];
-                for (i=0;i<scnt;i++)
-                    scan_ev.slangs[i] = p.bodyString.get(i+acnt+2);
-            }
-            scan_ev.free_ca = p.bodyInt.get(5*scnt+4*acnt+25);
-            scan_ev.scrambled = p.bodyInt.get(5*scnt+4*acnt+26);
-            scan_ev.scan_mode = p.bodyInt.get(5*scnt+4*acnt+27);
-            scan_ev.sdtVersion = p.bodyInt.get(5*scnt+4*acnt+28);
-            scan_ev.sort_mode = p.bodyInt.get(5*scnt+4*acnt+29);
-
-            scan_ev.lcnInfo = new ScannerLcnInfo();
-            scan_ev.lcnInfo.netId = p.bodyInt.get(5*scnt+4*acnt+30);
-            scan_ev.lcnInfo.tsId = p.bodyInt.get(5*scnt+4*acnt+31);
-            scan_ev.lcnInfo.serviceId = p.bodyInt.get(5*scnt+4*acnt+32);
-            scan_ev.lcnInfo.visible = new int[4];
-            scan_ev.lcnInfo.lcn = new int[4];
-            scan_ev.lcnInfo.valid = new int[4];
-            for (j=0; j<4; j++) {
-                scan_ev.lcnInfo.visible[j] = p.bodyInt.get(j*3+5*scnt+4*acnt+33);
-                scan_ev.lcnInfo.lcn[j] = p.bodyInt.get(j*3+5*scnt+4*acnt+34);
-                scan_ev.lcnInfo.valid[j] = p.bodyInt.get(j*3+5*scnt+4*acnt+35);
-            }
-            scan_ev.majorChannelNumber = p.bodyInt.get(4*3+5*scnt+4*acnt+33);
-            scan_ev.minorChannelNumber = p.bodyInt.get(4*3+5*scnt+4*acnt+34);
-            scan_ev.sourceId = p.bodyInt.get(4*3+5*scnt+4*acnt+35);
-            scan_ev.accessControlled = p.bodyInt.get(4*3+5*scnt+4*acnt+36);
-            scan_ev.hidden = p.bodyInt.get(4*3+5*scnt+4*acnt+37);
-            scan_ev.hideGuide = p.bodyInt.get(4*3+5*scnt+4*acnt+38);
-            scan_ev.vct = p.bodyString.get(scnt+acnt+2);
-            scan_ev.programs_in_pat = p.bodyInt.get(4*3+5*scnt+4*acnt+39);
-            scan_ev.pat_ts_id = p.bodyInt.get(4*3+5*scnt+4*acnt+40);
+            scan_ev.strength = body[7];
+            scan_ev.quality = body[8];
+            scan_ev.videoStd = body[9];
+            scan_ev.audioStd = body[10];
+            scan_ev.isAutoStd = body[11];
+
+            scan_ev.mode = body[12];
+            scan_ev.sr = body[13];
+            scan_ev.mod = body[14];
+            scan_ev.bandwidth = body[15];
+            scan_ev.reserved = body[16];
+            scan_ev.ts_id = body[17];
+            scan_ev.orig_net_id = body[18];
+            scan_ev.serviceID = body[19];
+            scan_ev.vid = body[20];
+            scan_ev.vfmt = body[21];
+            int acnt = body[22];
+            scan_ev.aids = newIntArray(acnt);
+            scan_ev.afmts = newIntArray(acnt);
+            scan_ev.alangs = newStringArray(acnt);
+            scan_ev.atypes = newIntArray(acnt);
+            scan_ev.aexts = newIntArray(acnt);
+            pos = 23;
+            for (i = 0; i < acnt; i++) {
+                scan_ev.aids[i] = body[pos + i];
+                scan_ev.afmts[i] = body[pos + acnt + i];
+                scan_ev.alangs[i] = p.bodyString.get(i + 2);
+                scan_ev.atypes[i] = body[pos + 2 * acnt + i];
+                scan_ev.aexts[i] = body[pos + 3 * acnt + i];
+            }
+            pos += 4 * acnt;
+            scan_ev.pcr = body[pos];
+            int scnt = body[pos + 1];
+            pos += 2;
+            scan_ev.stypes = newIntArray(scnt);
+            scan_ev.sids = newIntArray(scnt);
+            scan_ev.sstypes = newIntArray(scnt);
+            scan_ev.sid1s = newIntArray(scnt);
+            scan_ev.sid2s = newIntArray(scnt);
+            scan_ev.slangs = newStringArray(scnt);
+            for (i = 0; i < scnt; i++) {
+                scan_ev.stypes[i] = body[pos + i];
+                scan_ev.sids[i] = body[pos + scnt + i];
+                scan_ev.sstypes[i] = body[pos + 2 * scnt + i];
+                scan_ev.sid1s[i] = body[pos + 3 * scnt + i];
+                scan_ev.sid2s[i] = body[pos + 4 * scnt + i];
+                scan_ev.slangs[i] = p.bodyString.get(i + acnt + 2);
+            }
+            pos += 5 * scnt;
+            scan_ev.free_ca = body[pos];
+            scan_ev.scrambled = body[pos + 1];
+            scan_ev.scan_mode = body[pos + 2];
+            scan_ev.sdtVersion = body[pos + 3];
+            scan_ev.sort_mode = body[pos + 4];
+
+            if (scan_ev.lcnInfo == null) {
+                scan_ev.lcnInfo = new ScannerLcnInfo();
+                scan_ev.lcnInfo.visible = new int[4];
+                scan_ev.lcnInfo.lcn = new int[4];
+                scan_ev.lcnInfo.valid = new int[4];
+            }
+            scan_ev.lcnInfo.netId = body[pos + 5];
+            scan_ev.lcnInfo.tsId = body[pos + 6];
+            scan_ev.lcnInfo.serviceId = body[pos + 7];
+            pos += 8;
+            for (j = 0; j < 4; j++) {
+                scan_ev.lcnInfo.visible[j] = body[pos + j * 3];
+                scan_ev.lcnInfo.lcn[j] = body[pos + j * 3 + 1];
+                scan_ev.lcnInfo.valid[j] = body[pos + j * 3 + 2];
+            }
+            pos += 4 * 3;
+            scan_ev.majorChannelNumber = body[pos];
+            scan_ev.minorChannelNumber = body[pos + 1];
+            scan_ev.sourceId = body[pos + 2];
+            scan_ev.accessControlled = body[pos + 3];
+            scan_ev.hidden = body[pos + 4];
+            scan_ev.hideGuide = body[pos + 5];
+            scan_ev.vct = p.bodyString.get(scnt + acnt + 2);
+            scan_ev.programs_in_pat = body[pos + 6];
+            scan_ev.pat_ts_id = body[pos + 7];
         }
 
         @Override
         public void handleMessage(Message msg) {
+            handleEvent(msg.what, (TvHidlParcel) (msg.obj));
+        }
+
+        @Override
+        public void onEvent(TvHidlParcel parcel) {
+            handleEvent(parcel.msgType, parcel);
+        }
+
+        private void handleEvent(int what, TvHidlParcel parcel) {
             int i = 0, loop_count = 0, tmp_val = 0;
 
-            TvHidlParcel parcel = ((TvHidlParcel) (msg.obj));
-            switch (msg.what) {
+            switch (what) {
                 case DTV_AV_PLAYBACK_CALLBACK:
                     if (mAVPlaybackListener != null) {
                         int msgType= parcel.bodyInt.get(0);
@@ -466,12 +726,13 @@ public class TvControlManager {
                     break;
 
                 case SCAN_EVENT_CALLBACK:
-                    ScannerEvent scan_ev = new ScannerEvent();
+                    ScannerEvent scan_ev = obtainScannerEvent();
                     readScanEvent(scan_ev, parcel);
                     if (mScannerListener != null)
                         mScannerListener.onEvent(scan_ev);
                     if (mStorDBListener != null)
                         mStorDBListener.StorDBonEvent(scan_ev);
+                    scan_ev.recycle();
                     break;
 
                 case RRT_EVENT_CALLBACK:
@@ -629,20 +890,21 @@ public class TvControlManager {
                     }
                     break;
                 case CLOSE_CAPTION_CALLBACK:
-                    if (mCloseCaptionListener != null) {
-                        loop_count = parcel.bodyInt.get(0);
-                        Log.d(TAG, "cc listener data count =" + loop_count);
-                        for (i = 0; i < loop_count; i++) {
-                            dataArray[i] = parcel.bodyInt.get(i+1);
+                    if (mCloseCaptionListener != null || mCloseCaptionBufferEnabled) {
+                        TvCloseCaptionBuffer.Packet slot = null;
+                        if (mCloseCaptionBufferEnabled) {
+                            slot = mCloseCaptionBuffer.beginWrite();
+                            if (slot == null && DEBUG) Log.d(TAG, "cc buffer full, drop packet");
+                        }
+                        // a full or disabled ring still feeds the listener
+                        TvCloseCaptionBuffer.Packet packet = (slot != null) ? slot : mCloseCaptionScratch;
+                        readCloseCaptionPacket(parcel, packet);
+                        if (mCloseCaptionListener != null) {
+                            mCloseCaptionListener.onCloseCaptionProcess(packet.data, packet.cmd);
                         }
-                        //data len write to end
-                        dataArray[dataArray.length - 1] = loop_count;
-                        loop_count = parcel.bodyInt.get(loop_count+1);
-                        for (i = 0; i < loop_count; i++) {
-                            cmdArray[i] = parcel.bodyInt.get(i+loop_count+2);
+                        if (slot != null) {
+                            mCloseCaptionBuffer.endWrite();
                         }
-                        cmdArray[cmdArray.length - 1] =  loop_count;
-                        mCloseCaptionListener.onCloseCaptionProcess(dataArray, cmdArray);
                     }
                     break;
 
@@ -657,6 +919,7 @@ public class TvControlManager {
                     break;
                 case AUDIO_EVENT_CALLBACK:
                     Log.i(TAG,"get AUDIO_EVENT_CALLBACK");
+                    mAudioSettingsCache.invalidate();
                     if (mAudioListener != null) {
                         int cmd = parcel.bodyInt.get(0);
                         int param1 = parcel.bodyInt.get(1);
@@ -678,27 +941,118 @@ public class TvControlManager {
                         mQmsEventListener.onEvent(ev);
                     }
                  default:
-                     Log.e(TAG, "Unknown message type " + msg.what);
+                     Log.e(TAG, "Unknown message type " + what);
                      break;
             }
         }
     }
 
     public static TvControlManager getInstance() {
-        if (null == mInstance) mInstance = new TvControlManager();
-        return mInstance;
+        TvControlManager instance = mInstance;
+        if (null == instance) {
+            synchronized (TvControlManager.class) {
+                if (null == mInstance) {
+                    mInstance = new TvControlManager(mServerConnector);
+                    mInstanceLatch.countDown();
+                }
+                instance = mInstance;
+            }
+        }
+        return instance;
     }
 
-    public TvControlManager() {
-        Looper looper = Looper.myLooper();
-        if (looper != null) {
-            mEventHandler = new EventHandler(looper);
-        } else if ((looper = Looper.getMainLooper()) != null) {
-            mEventHandler = new EventHandler(looper);
-        } else {
-            mEventHandler = null;
-            Log.e(TAG, "looper is null, so can not do anything");
+    /**
+     * @Function: prewarm
+     * @Description: Create the instance and connect to tvserver on a background thread,
+     *               call early at process start so getInstance() does not block later
+     */
+    public static void prewarm() {
+        if (null != mInstance || !mPrewarmStarted.compareAndSet(false, true)) {
+            return;
         }
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                getInstance();
+            }
+        }, TAG + "-prewarm");
+        t.start();
+    }
+
+    /**
+     * @Function: isReady
+     * @Description: Whether the instance exists and is connected to tvserver, never blocks
+     */
+    public static boolean isReady() {
+        TvControlManager instance = mInstance;
+        return null != instance && instance.mConnectedLatch.getCount() == 0 && instance.isTvServerConnected();
+    }
+
+    /**
+     * @Function: awaitReady
+     * @Description: Wait until the instance is connected to tvserver, starts prewarm() if needed
+     * @Param: timeoutMs max time to wait in ms
+     * @Return: true if ready, false on timeout or interrupt
+     */
+    public static boolean awaitReady(long timeoutMs) {
+        prewarm();
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        try {
+            if (!mInstanceLatch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            long left = Math.max(deadline - SystemClock.elapsedRealtime(), 0);
+            return mInstance.mConnectedLatch.await(left, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static volatile TvServerConnector mServerConnector = TvServerConnector.HIDL;
+
+    /**
+     * @Function: setServerConnector
+     * @Description: Replace the tvserver HIDL backend, e.g. with a simulator in tests,
+     *               must be called before the first getInstance()
+     * @Param: connector backend supplier, null restores the HIDL service
+     */
+    public static void setServerConnector(TvServerConnector connector) {
+        mServerConnector = (connector != null) ? connector : TvServerConnector.HIDL;
+    }
+
+    private static volatile Looper mEventLooper = null;
+
+    /**
+     * @Function: setEventLooper
+     * @Description: Call listeners on the given looper, e.g. the main looper for clients
+     *               updating UI from their listeners. By default they are called on a
+     *               thread owned by TvControlManager, so caption and scan bursts never
+     *               run on the UI thread. Must be called before the first getInstance()
+     * @Param: looper looper to call listeners on, null for the own thread (default)
+     */
+    public static void setEventLooper(Looper looper) {
+        mEventLooper = looper;
+    }
+
+    public TvControlManager() {
+        this(TvServerConnector.HIDL);
+    }
+
+    // for tests creating their own instances, the shared one lives as long as the process
+    void quitEventThread() {
+        mEventDispatcher.quit();
+    }
+
+    public TvControlManager(TvServerConnector connector) {
+        mConnector = connector;
+        Reconnection reconnection = new Reconnection();
+        mReconnector = new TvServerReconnector(reconnection, reconnection);
+        // listeners are called on an own thread unless a looper was given
+        Looper looper = mEventLooper;
+        mEventDispatcher = new TvEventDispatcher(looper);
+        mEventHandler = new EventHandler(mEventDispatcher.getLooper());
+        mEventDispatcher.setEventSink(mEventHandler);
         mHALCallback = new HALCallback(this);
         mSourceConnectChangeListener = new ArrayList<StatusSourceConnectListener>();
         mSigInfoChangeListener = new ArrayList<TvInSignalInfo.SigInfoChangeListener>();
@@ -732,33 +1086,174 @@ public class TvControlManager {
     // Notification object used to listen to the start of the tvserver daemon.
     //private final ServiceNotification mServiceNotification = new ServiceNotification();
 
-    private ITvServer mProxy = null;
-    // Mutex for all mutable shared state.
+    private final TvServerConnector mConnector;
+    private final TvServerReconnector mReconnector;
+    private volatile TvEventRecorder mEventRecorder = null;
+
+    // Published once the HIDL service is linked, read without locking by every call.
+    private volatile ITvServer mProxy = null;
+    // mProxy without the metrics wrapper, guarded by mLock
+    private ITvServer mRawProxy = null;
+    private volatile TvCallMetrics mCallMetrics = null;
+    // Mutex for connection state and the config/misc calls.
     private final Object mLock = new Object();
 
+    // HIDL calls are serialized per domain so that a slow call in one domain
+    // (e.g. LoadEdidData, SetSourceInput) does not stall getters of another.
+    // Lock order when nesting: mSourceLock/mSsmLock -> mDtvLock -> mLock.
+    private final Object mSourceLock = new Object();  // source, signal, hdmi/edid
+    private final Object mAudioLock = new Object();   // audio output and tracks
+    private final Object mPictureLock = new Object(); // picture, panel, fbc, vdec
+    private final Object mSsmLock = new Object();     // ssm storage
+    private final Object mDtvLock = new Object();     // dtv, scan, frontend, request()
+    private final Object mRecordLock = new Object();  // recording and playback
+
+    // every domain lock is entered through this, so the call metrics can tell how long
+    // the next tvserver call waited for it; returns the lock itself
+    private Object timed(Object lock) {
+        TvCallMetrics metrics = mCallMetrics;
+        if (metrics != null) {
+            metrics.lockRequested(lock);
+        }
+        return lock;
+    }
+
+    private void publishProxyLocked(ITvServer proxy) {
+        mRawProxy = proxy;
+        TvCallMetrics metrics = mCallMetrics;
+        mProxy = (metrics != null && proxy != null) ? metrics.wrap(proxy) : proxy;
+    }
+
+    /**
+     * @Function: setCallMetricsEnabled
+     * @Description: Record count, errors, latency histogram and domain lock wait of every
+     *               tvserver call, request() per resource. Disabled calls go to tvserver
+     *               unwrapped and the locks are entered without a timestamp
+     * @Param: enable true to start recording, false to stop and drop the metrics
+     */
+    public void setCallMetricsEnabled(boolean enable) {
+        synchronized (timed(mLock)) {
+            if (enable == (mCallMetrics != null)) {
+                return;
+            }
+            mCallMetrics = enable ? new TvCallMetrics() : null;
+            publishProxyLocked(mRawProxy);
+        }
+    }
+
+    public void resetCallMetrics() {
+        TvCallMetrics metrics = mCallMetrics;
+        if (metrics != null) {
+            metrics.reset();
+        }
+    }
+
+    /**
+     * @Function: dumpCallMetrics
+     * @Description: Print the call metrics table, for dumpsys or a debug intent
+     * @Param: pw output
+     */
+    public void dumpCallMetrics(PrintWriter pw) {
+        TvCallMetrics metrics = mCallMetrics;
+        if (metrics == null) {
+            pw.println("tvserver call metrics disabled");
+            pw.flush();
+            return;
+        }
+        metrics.dump(pw);
+    }
+
+    public String getCallMetricsDump() {
+        StringWriter sw = new StringWriter();
+        dumpCallMetrics(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    private ITvServer linkProxy() throws RemoteException {
+        ITvServer proxy = mConnector.connect();
+        proxy.linkToDeath(new DeathRecipient(), TVSERVER_DEATH_COOKIE);
+        proxy.setCallback(mHALCallback, ConnectType.TYPE_EXTEND);
+        return proxy;
+    }
+
     private void connectToProxy() {
-        synchronized (mLock) {
+        synchronized (timed(mLock)) {
             if (mProxy != null) {
                 return;
             }
 
             try {
-                mProxy = ITvServer.getService();
-                mProxy.linkToDeath(new DeathRecipient(), TVSERVER_DEATH_COOKIE);
-                mProxy.setCallback(mHALCallback, ConnectType.TYPE_EXTEND);
+                publishProxyLocked(linkProxy());
+                mConnectedLatch.countDown();
+                Log.i(TAG, "connect to tvserver HIDL service success");
+                return;
             } catch (NoSuchElementException e) {
                 Log.e(TAG, "connectToProxy: tvserver HIDL service not found."
                         + " Did the service fail to start?", e);
             } catch (RemoteException e) {
                 Log.e(TAG, "connectToProxy: tvserver HIDL service not responding", e);
             }
+            // keep retrying in the background, calls fail or queue until then
+            publishProxyLocked(mReconnector.onServiceLost());
+        }
+    }
+
+    private final class Reconnection implements TvServerReconnector.Connector, TvServerReconnector.Listener {
+        @Override
+        public ITvServer connect() throws RemoteException {
+            return linkProxy();
+        }
+
+        @Override
+        public void onReconnected(ITvServer proxy) {
+            synchronized (timed(mLock)) {
+                // died again before we got here, the next reconnect publishes
+                if (!mReconnector.isReconnecting()) {
+                    publishProxyLocked(proxy);
+                    mConnectedLatch.countDown();
+                }
+            }
         }
+    }
+
+    /**
+     * @Function: isTvServerConnected
+     * @Description: Whether tvserver is connected, false while reconnecting after its death
+     */
+    public boolean isTvServerConnected() {
+        return !mReconnector.isReconnecting();
+    }
+
+    public int getTvServerReconnectCount() {
+        return mReconnector.getReconnectCount();
+    }
+
+    /**
+     * @Function: getTvServerReconnectLatencyMs
+     * @Description: Time from losing tvserver to the last successful reconnect, in ms
+     */
+    public long getTvServerReconnectLatencyMs() {
+        return mReconnector.getLastLatencyMs();
+    }
 
-        Log.i(TAG, "connect to tvserver HIDL service success");
+    public long getTvServerMaxReconnectLatencyMs() {
+        return mReconnector.getMaxLatencyMs();
+    }
+
+    /**
+     * @Function: getTvServerPendingSetterCount
+     * @Description: Setters held while tvserver is down, replayed once it is back
+     */
+    public int getTvServerPendingSetterCount() {
+        return mReconnector.getPendingCallCount();
+    }
+
+    public long getTvServerDroppedSetterCount() {
+        return mReconnector.getDroppedCallCount();
     }
 
     public String getSupportInputDevices() {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             Mutable<String> resultVal = new Mutable<>();
             try {
                 mProxy.getSupportInputDevices((int ret, String v) -> {
@@ -772,8 +1267,86 @@ public class TvControlManager {
         return "";
     }
 
+    /**
+     * @return the table read from tvserver, null if it is not connected, a call failed
+     *         or no country is supported
+     */
+    private TvCountryCapabilities fetchCountryCapabilities() {
+        synchronized (timed(mLock)) {
+            if (!isTvServerConnected()) {
+                return null;
+            }
+            try {
+                return TvCountryCapabilities.fetch(mProxy);
+            } catch (RemoteException e) {
+                Log.e(TAG, "fetchCountryCapabilities:" + e);
+            }
+        }
+        return null;
+    }
+
+    private TvCountryCapabilities.Entry countryCapabilitiesOf(String country_code) {
+        TvCountryCapabilities caps = mCountryCapabilities;
+        return (caps != null) ? caps.get(country_code) : null;
+    }
+
+    /**
+     * @Function: getCountryCapabilities
+     * @Description: Get the per-country capability table, read from tvserver on first use.
+     *               Once loaded, GetTVSupportCountries and the GetTv*(country_code) calls
+     *               are answered from it without binder calls
+     * @Param:
+     * @Return: the table, null if tvserver is not reachable or reports no supported country,
+     *          the next call tries again
+     */
+    public TvCountryCapabilities getCountryCapabilities() {
+        TvCountryCapabilities caps = mCountryCapabilities;
+        if (caps == null) {
+            synchronized (mCountryCapabilitiesLock) {
+                caps = mCountryCapabilities;
+                if (caps == null) {
+                    caps = fetchCountryCapabilities();
+                    mCountryCapabilities = caps;
+                }
+            }
+        }
+        return caps;
+    }
+
+    /**
+     * @Function: getCountryCapabilities
+     * @Description: Like getCountryCapabilities(), but first tries the table persisted by an
+     *               earlier run of this build, and persists a freshly read one
+     * @Param: context used to reach TvControlDataManager storage
+     * @Return: the table, null if tvserver is not reachable or reports no supported country,
+     *          the next call tries again
+     */
+    public TvCountryCapabilities getCountryCapabilities(Context context) {
+        TvCountryCapabilities caps = mCountryCapabilities;
+        if (caps == null) {
+            synchronized (mCountryCapabilitiesLock) {
+                caps = mCountryCapabilities;
+                if (caps == null) {
+                    caps = TvCountryCapabilities.load(context);
+                    if (caps == null) {
+                        caps = fetchCountryCapabilities();
+                        if (caps != null) {
+                            caps.save(context);
+                        }
+                    }
+                    mCountryCapabilities = caps;
+                }
+            }
+        }
+        return caps;
+    }
+
     public String GetTVSupportCountries() {
-        synchronized (mLock) {
+        TvCountryCapabilities caps = mCountryCapabilities;
+        if (caps != null) {
+            return caps.getSupportCountries();
+        }
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getTvSupportCountries();
             } catch (RemoteException e) {
@@ -784,7 +1357,11 @@ public class TvControlManager {
     }
 
     public String getTvDefaultCountry() {
-        synchronized (mLock) {
+        TvCountryCapabilities caps = mCountryCapabilities;
+        if (caps != null) {
+            return caps.getDefaultCountry();
+        }
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getTvDefaultCountry();
             } catch (RemoteException e) {
@@ -795,7 +1372,11 @@ public class TvControlManager {
     }
 
     public String GetTvCountryNameById(String country_code) {
-        synchronized (mLock) {
+        TvCountryCapabilities.Entry caps = countryCapabilitiesOf(country_code);
+        if (caps != null) {
+            return caps.name;
+        }
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getTvCountryName(country_code);
             } catch (RemoteException e) {
@@ -806,7 +1387,11 @@ public class TvControlManager {
     }
 
     public String GetTvSearchMode(String country_code) {
-        synchronized (mLock) {
+        TvCountryCapabilities.Entry caps = countryCapabilitiesOf(country_code);
+        if (caps != null) {
+            return caps.searchMode;
+        }
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getTvSearchMode(country_code);
             } catch (RemoteException e) {
@@ -817,7 +1402,11 @@ public class TvControlManager {
     }
 
     public boolean GetTvDtvSupport(String country_code) {
-        synchronized (mLock) {
+        TvCountryCapabilities.Entry caps = countryCapabilitiesOf(country_code);
+        if (caps != null) {
+            return caps.dtvSupport;
+        }
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getTvDtvSupport(country_code);
             } catch (RemoteException e) {
@@ -828,7 +1417,11 @@ public class TvControlManager {
     }
 
     public String GetTvDtvSystem(String country_code) {
-        synchronized (mLock) {
+        TvCountryCapabilities.Entry caps = countryCapabilitiesOf(country_code);
+        if (caps != null) {
+            return caps.dtvSystem;
+        }
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getTvDtvSystem(country_code);
             } catch (RemoteException e) {
@@ -839,7 +1432,11 @@ public class TvControlManager {
     }
 
     public boolean GetTvAtvSupport(String country_code) {
-        synchronized (mLock) {
+        TvCountryCapabilities.Entry caps = countryCapabilitiesOf(country_code);
+        if (caps != null) {
+            return caps.atvSupport;
+        }
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getTvAtvSupport(country_code);
             } catch (RemoteException e) {
@@ -850,7 +1447,11 @@ public class TvControlManager {
     }
 
     public String GetTvAtvColorSystem(String country_code) {
-        synchronized (mLock) {
+        TvCountryCapabilities.Entry caps = countryCapabilitiesOf(country_code);
+        if (caps != null) {
+            return caps.atvColorSystem;
+        }
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getTvAtvColorSystem(country_code);
             } catch (RemoteException e) {
@@ -861,7 +1462,11 @@ public class TvControlManager {
     }
 
     public String GetTvAtvSoundSystem(String country_code) {
-        synchronized (mLock) {
+        TvCountryCapabilities.Entry caps = countryCapabilitiesOf(country_code);
+        if (caps != null) {
+            return caps.atvSoundSystem;
+        }
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getTvAtvSoundSystem(country_code);
             } catch (RemoteException e) {
@@ -872,7 +1477,11 @@ public class TvControlManager {
     }
 
     public String GetTvAtvMinMaxFreq(String country_code) {
-        synchronized (mLock) {
+        TvCountryCapabilities.Entry caps = countryCapabilitiesOf(country_code);
+        if (caps != null) {
+            return caps.atvMinMaxFreq;
+        }
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getTvAtvMinMaxFreq(country_code);
             } catch (RemoteException e) {
@@ -883,7 +1492,11 @@ public class TvControlManager {
     }
 
     public boolean GetTvAtvStepScan(String country_code) {
-        synchronized (mLock) {
+        TvCountryCapabilities.Entry caps = countryCapabilitiesOf(country_code);
+        if (caps != null) {
+            return caps.atvStepScan;
+        }
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getTvAtvStepScan(country_code);
             } catch (RemoteException e) {
@@ -894,7 +1507,7 @@ public class TvControlManager {
     }
 
     public int SetTvCountry(String country) {
-        synchronized (mLock) {
+        synchronized (timed(mLock)) {
             try {
                  mProxy.setTvCountry(country);
                  return 0;
@@ -906,7 +1519,7 @@ public class TvControlManager {
     }
 
     public int SetTvCurrentLanguage(String lang) {
-        synchronized (mLock) {
+        synchronized (timed(mLock)) {
             try {
                  mProxy.setCurrentLanguage(lang);
                  return 0;
@@ -931,32 +1544,33 @@ public class TvControlManager {
      * @Return: refer to class tvin_info_t
      */
     public TvInSignalInfo GetCurrentSignalInfo() {
-        synchronized (mLock) {
-            TvInSignalInfo info = new TvInSignalInfo();
+        TvInSignalInfo info = new TvInSignalInfo();
+        synchronized (timed(mSourceLock)) {
             try {
                 SignalInfo hidlInfo = mProxy.getCurSignalInfo();
                 info.transFmt = TvInSignalInfo.TransFmt.values()[hidlInfo.transFmt];
                 info.sigFmt = TvInSignalInfo.SignalFmt.valueOf(hidlInfo.fmt);
                 info.sigStatus = TvInSignalInfo.SignalStatus.values()[hidlInfo.status];
                 info.reserved = hidlInfo.frameRate;
-                if (isBlockedByChannelLock()) {
-                    //means:
-                    //1. channel lock config on,
-                    //2. channel lock global on
-                    //3. channel locked
-                    //4. source = atv
-                    if (info.sigStatus == TvInSignalInfo.SignalStatus.TVIN_SIG_STATUS_UNSTABLE
-                        || info.sigStatus == TvInSignalInfo.SignalStatus.TVIN_SIG_STATUS_NOTSUP
-                        || info.sigStatus == TvInSignalInfo.SignalStatus.TVIN_SIG_STATUS_STABLE) {
-                        info.sigStatus = TvInSignalInfo.SignalStatus.TVIN_SIG_STATUS_BLOCKED;
-                    }
-                }
-                return info;
             } catch (RemoteException e) {
                 Log.e(TAG, "GetCurrentSignalInfo:" + e);
+                return null;
             }
         }
-        return null;
+        // queried on every call outside mSourceLock, the lock can change in any process
+        if (isBlockedByChannelLock()) {
+            //means:
+            //1. channel lock config on,
+            //2. channel lock global on
+            //3. channel locked
+            //4. source = atv
+            if (info.sigStatus == TvInSignalInfo.SignalStatus.TVIN_SIG_STATUS_UNSTABLE
+                || info.sigStatus == TvInSignalInfo.SignalStatus.TVIN_SIG_STATUS_NOTSUP
+                || info.sigStatus == TvInSignalInfo.SignalStatus.TVIN_SIG_STATUS_STABLE) {
+                info.sigStatus = TvInSignalInfo.SignalStatus.TVIN_SIG_STATUS_BLOCKED;
+            }
+        }
+        return info;
     }
 
     /**
@@ -966,7 +1580,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int TvMiscConfigSet(String key_str, String value_str) {
-        synchronized (mLock) {
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.setMiscCfg(key_str, value_str);
             } catch (RemoteException e) {
@@ -984,7 +1598,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public String TvMiscConfigGet(String key_str, String def_str) {
-        synchronized (mLock) {
+        synchronized (timed(mLock)) {
             try {
                 return mProxy.getMiscCfg(key_str, def_str);
             } catch (RemoteException e) {
@@ -1013,12 +1627,13 @@ public class TvControlManager {
         }
 
         public void notifyCallback(TvHidlParcel parcel) {
-            Log.i(TAG, "notifyCallback msg type:" + parcel.msgType);
+            if (DEBUG) Log.d(TAG, "notifyCallback msg type:" + parcel.msgType);
 
-            if (tvCtrlMgr.mEventHandler != null) {
-                Message msg = tvCtrlMgr.mEventHandler.obtainMessage(parcel.msgType, 0, 0, parcel);
-                tvCtrlMgr.mEventHandler.sendMessage(msg);
+            TvEventRecorder recorder = tvCtrlMgr.mEventRecorder;
+            if (recorder != null) {
+                recorder.record(parcel);
             }
+            tvCtrlMgr.mEventDispatcher.enqueue(parcel);
         }
     }
 
@@ -1030,9 +1645,11 @@ public class TvControlManager {
         public void serviceDied(long cookie) {
             if (TVSERVER_DEATH_COOKIE == cookie) {
                 Log.e(TAG, "tvserver HIDL service died cookie: " + cookie);
-                synchronized (mLock) {
-                    mProxy = null;
+                synchronized (timed(mLock)) {
+                    publishProxyLocked(mReconnector.onServiceLost());
                 }
+                mAudioSettingsCache.invalidate();
+                mPictureSettingsCache.invalidate();
             }
         }
     }
@@ -1054,6 +1671,7 @@ public class TvControlManager {
     // when app exit, need release manual
     public final void release() {
         libtv_log_open();
+        SSMFlush();
         //native_release();
     }
 
@@ -1135,7 +1753,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int StopTv() {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.stopTv();
             } catch (RemoteException e) {
@@ -1146,7 +1764,7 @@ public class TvControlManager {
     }
 
     public int StartTv() {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.startTv();
             } catch (RemoteException e) {
@@ -1188,7 +1806,7 @@ public class TvControlManager {
      * @Return: refer to enum SourceInput
      */
     public int GetCurrentSourceInput() {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.getCurrentSourceInput();
             } catch (RemoteException e) {
@@ -1205,7 +1823,7 @@ public class TvControlManager {
      * @Return: refer to enum SourceInput
      */
     public int GetCurrentVirtualSourceInput() {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.getCurrentVirtualSourceInput();
             } catch (RemoteException e) {
@@ -1254,7 +1872,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int SetSourceInput(SourceInput srcInput) {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.setSourceInput(srcInput.toInt());
             } catch (RemoteException e) {
@@ -1271,7 +1889,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int SetSourceInput(SourceInput srcInput, SourceInput virtualSrcInput) {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.setSourceInputExt(srcInput.toInt(), virtualSrcInput.toInt());
             } catch (RemoteException e) {
@@ -1288,7 +1906,7 @@ public class TvControlManager {
      * @Return: true, false
      */
     public boolean IsDviSignal() {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 int value = mProxy.isDviSignal();
                 Log.d(TAG, "IsDviSignal:" + value);
@@ -1311,7 +1929,7 @@ public class TvControlManager {
      * @Return: true, false
      */
     public boolean IsPcFmtTiming() {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                  if (mProxy.isVgaTimingInHdmi() == 1) {
                      return true;
@@ -1360,7 +1978,7 @@ public class TvControlManager {
      * @Return: 0:plug out 1:plug in
      */
     public int GetSourceConnectStatus(SourceInput srcInput) {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.getInputSrcConnectStatus(srcInput.toInt());
             } catch (RemoteException e) {
@@ -1391,7 +2009,7 @@ public class TvControlManager {
 	 * @Return: 0 success, -1 fail
 	 */
 	public int LoadEdidData(int isNeedBlackScreen, int isDolbyVisionEnable) {
-		  synchronized (mLock) {
+		  synchronized (timed(mSourceLock)) {
 			try {
 				return mProxy.loadEdidData(isNeedBlackScreen, isDolbyVisionEnable);
 			} catch (Exception e) {
@@ -1408,7 +2026,7 @@ public class TvControlManager {
 	* @Return: 0 success, -1 fail
 	*/
     public int UpdateEdidData(SourceInput srcInput, String edidData) {
-		 synchronized (mLock) {
+		 synchronized (timed(mSourceLock)) {
 		   try {
 			   return mProxy.updateEdidData(srcInput.toInt(), edidData);
 		   } catch (Exception e) {
@@ -1425,7 +2043,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int SetHdmiEdidVersion(HdmiPortID port_id, HdmiEdidVer ver) {
-          synchronized (mLock) {
+          synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.setHdmiEdidVersion(port_id.toInt(), ver.toInt());
             } catch (RemoteException e) {
@@ -1442,7 +2060,7 @@ public class TvControlManager {
      * @Return: hdmi edid version
      */
     public int GetHdmiEdidVersion(HdmiPortID port_id) {
-          synchronized (mLock) {
+          synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.getHdmiEdidVersion(port_id.toInt());
             } catch (RemoteException e) {
@@ -1460,7 +2078,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int SaveHdmiEdidVersion(HdmiPortID port_id, HdmiEdidVer ver) {
-          synchronized (mLock) {
+          synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.saveHdmiEdidVersion(port_id.toInt(), ver.toInt());
             } catch (RemoteException e) {
@@ -1478,7 +2096,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int SetDLGEnable(int isEnable) {
-          synchronized (mLock) {
+          synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.Tv_SetDLGEnable(isEnable);
             } catch (Exception e) {
@@ -1494,7 +2112,7 @@ public class TvControlManager {
      * @Return: 1:enable, 0: disable, -1: get fail
      */
     public int GetDLGEnable() {
-          synchronized (mLock) {
+          synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.Tv_GetDLGEnable();
             } catch (Exception e) {
@@ -1510,7 +2128,7 @@ public class TvControlManager {
     * @Return: true or false.
     */
    public boolean IsSupportDLG() {
-         synchronized (mLock) {
+         synchronized (timed(mSourceLock)) {
            try {
                 if (mProxy.isSupportDLG() == 0) {
                     return true;
@@ -1564,13 +2182,15 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int SetHdmiColorRangeMode(HdmiColorRangeMode mode) {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
-                return mProxy.setHdmiColorRangeMode(mode.toInt());
+                return updateCachedSetting(mPictureSettingsCache, CACHE_KEY_HDMI_COLOR_RANGE_MODE, mode.toInt(),
+                        mProxy.setHdmiColorRangeMode(mode.toInt()));
             } catch (RemoteException e) {
                 Log.e(TAG, "SetHdmiColorRangeMode:" + e);
             }
         }
+        mPictureSettingsCache.remove(CACHE_KEY_HDMI_COLOR_RANGE_MODE);
         return -1;
     }
 
@@ -1581,9 +2201,16 @@ public class TvControlManager {
      * @Return: color range mode refer to enum HdmiColorRangeMode
      */
     public int GetHdmiColorRangeMode() {
-        synchronized (mLock) {
+        int value = mPictureSettingsCache.get(CACHE_KEY_HDMI_COLOR_RANGE_MODE);
+        if (value != TvSettingsCache.MISS) {
+            return value;
+        }
+        long generation = mPictureSettingsCache.generation();
+        synchronized (timed(mSourceLock)) {
             try {
-                return mProxy.getHdmiColorRangeMode();
+                value = mProxy.getHdmiColorRangeMode();
+                mPictureSettingsCache.fill(CACHE_KEY_HDMI_COLOR_RANGE_MODE, value, generation);
+                return value;
             } catch (RemoteException e) {
                 Log.e(TAG, "getHdmiColorRangeMode:" + e);
             }
@@ -1592,20 +2219,29 @@ public class TvControlManager {
     }
 
     public int SetAudioOutmode (int mode) {
-        synchronized (mLock) {
+        synchronized (timed(mAudioLock)) {
             try {
-                return mProxy.setAudioOutmode(mode);
+                return updateCachedSetting(mAudioSettingsCache, CACHE_KEY_AUDIO_OUTMODE, mode,
+                        mProxy.setAudioOutmode(mode));
             } catch (RemoteException e) {
                 Log.e(TAG, "SetAudioOutmode:" + e);
             }
         }
+        mAudioSettingsCache.remove(CACHE_KEY_AUDIO_OUTMODE);
         return -1;
     }
 
     public int GetAudioOutmode(){
-        synchronized (mLock) {
+        int value = mAudioSettingsCache.get(CACHE_KEY_AUDIO_OUTMODE);
+        if (value != TvSettingsCache.MISS) {
+            return value;
+        }
+        long generation = mAudioSettingsCache.generation();
+        synchronized (timed(mAudioLock)) {
             try {
-                return mProxy.getAudioOutmode();
+                value = mProxy.getAudioOutmode();
+                mAudioSettingsCache.fill(CACHE_KEY_AUDIO_OUTMODE, value, generation);
+                return value;
             } catch (RemoteException e) {
                 Log.e(TAG, "GetAudioOutmode:" + e);
             }
@@ -1614,7 +2250,7 @@ public class TvControlManager {
     }
 
     public int GetAudioStreamOutmode(){
-        synchronized (mLock) {
+        synchronized (timed(mAudioLock)) {
             try {
                 return mProxy.getAudioStreamOutmode();
             } catch (RemoteException e) {
@@ -1625,7 +2261,7 @@ public class TvControlManager {
     }
 
     public int GetAtvAutoScanMode() {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.getAtvAutoScanMode();
             } catch (RemoteException e) {
@@ -1730,7 +2366,7 @@ public class TvControlManager {
     }
 
     public int FactoryCleanAllTableForProgram() {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.FactoryCleanAllTableForProgram();
             } catch (RemoteException e) {
@@ -1894,6 +2530,66 @@ public class TvControlManager {
         return sendCmd(GET_AUDIO_SPDIF_MUTE_STATUS);
     }
 
+    private TvSliderWriter getSliderWriter() {
+        synchronized (mSliderLock) {
+            if (mSliderWriter == null) {
+                mSliderWriter = new TvSliderWriter();
+            }
+            return mSliderWriter;
+        }
+    }
+
+    /**
+     * @Function: RegisterSlider
+     * @Description: Register a slider-driven control. The setter must reach tvserver (or
+     *               another real backend) and return 0 on success, the saver persists the
+     *               final value on ReleaseSlider. The Set*Volume/Balance/Backlight calls of
+     *               this class still use the sendCmd path and always fail, don't register them
+     * @Param: control caller chosen id, setter applies a value, saver persists it or null
+     */
+    public void RegisterSlider(int control, TvSliderWriter.IntSetter setter, TvSliderWriter.IntSetter saver) {
+        getSliderWriter().register(control, setter, saver);
+    }
+
+    /**
+     * @Function: SetSliderValue
+     * @Description: Set a slider-driven control without blocking. Only the latest value is
+     *               sent, at no more than the slider max rate; nothing is saved until
+     *               ReleaseSlider. Failures show up in getSliderFailedCount() and are never saved
+     * @Param: control id given to RegisterSlider, value passed to its setter
+     * @Return: 0 queued, -1 unknown control
+     */
+    public int SetSliderValue(int control, int value) {
+        return getSliderWriter().set(control, value) ? 0 : -1;
+    }
+
+    /**
+     * @Function: ReleaseSlider
+     * @Description: Send the last slider value now and persist it once with the saver
+     * @Param: control id given to RegisterSlider
+     * @Return: 0 success, -1 unknown control
+     */
+    public int ReleaseSlider(int control) {
+        return getSliderWriter().release(control) ? 0 : -1;
+    }
+
+    /**
+     * @Function: SetSliderMaxRate
+     * @Description: Max number of values per second sent to tvserver for each slider
+     * @Param: hz max rate, 0 for no limit
+     */
+    public void SetSliderMaxRate(int hz) {
+        getSliderWriter().setMaxRate(hz);
+    }
+
+    public long getSliderSkippedCount() {
+        return getSliderWriter().getSkippedCount();
+    }
+
+    public long getSliderFailedCount() {
+        return getSliderWriter().getFailedCount();
+    }
+
     // Audio Master Volume
 
     /**
@@ -2670,7 +3366,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int setAmAudioPreMute(int pre_mute) {
-        synchronized (mLock) {
+        synchronized (timed(mAudioLock)) {
             try {
                 return mProxy.setAmAudioPreMute(pre_mute);
             } catch (RemoteException e) {
@@ -2791,7 +3487,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int SSMInitDevice() {
-        synchronized (mLock) {
+        synchronized (timed(mSsmLock)) {
             try {
                 return mProxy.SSMInitDevice();
             } catch (RemoteException e) {
@@ -2824,57 +3520,192 @@ public class TvControlManager {
         return sendCmdIntArray(SSM_READ_ONE_BYTE, val);
     }
 
-    /**
-     * @Function: SSMWriteNByte
-     * @Description: Write n bytes to ssm
-     * @Param: offset pos in ssm for the bytes, data_len how many bytes, data_buf n bytes write buffer
-     * @Return: 0 success, -1 fail
-     */
-    public int SSMWriteNBytes(int offset, int data_len, int data_buf[]) {
+    // unflushed mirror writes go back to ssm this long after the first one
+    private static final int SSM_FLUSH_DELAY_MS = 500;
+    // a failed write back is retried on the flush thread this long after
+    private static final int SSM_FLUSH_RETRY_MS = 2000;
+
+    // Block I/O has no ITvServer method, it goes through the SSM_*_N_BYTES commands as
+    // before. Those fail until tvserver serves them again, so does enabling the mirror.
+    private boolean ssmReadDirect(int offset, byte[] buf, int bufOffset, int len) {
+        libtv_log_open();
+        Parcel cmd = Parcel.obtain();
+        Parcel r = Parcel.obtain();
+
+        cmd.writeInt(SSM_READ_N_BYTES);
+        cmd.writeInt(offset);
+        cmd.writeInt(len);
+
+        boolean ok = false;
+        if (sendCmdToTv(cmd, r) == 0) {
+            int data_len = r.readInt();
+            if (data_len == len) {
+                for (int i = 0; i < data_len; i++) {
+                    buf[bufOffset + i] = (byte) r.readInt();
+                }
+                ok = (r.readInt() == 0);
+            } else {
+                Log.e(TAG, "SSMReadBlock: short read " + data_len + "/" + len + " at " + offset);
+            }
+        }
+        cmd.recycle();
+        r.recycle();
+        return ok;
+    }
+
+    private boolean ssmWriteDirect(int offset, byte[] buf, int bufOffset, int len) {
         libtv_log_open();
         Parcel cmd = Parcel.obtain();
         Parcel r = Parcel.obtain();
 
         cmd.writeInt(SSM_SAVE_N_BYTES);
         cmd.writeInt(offset);
-        cmd.writeInt(data_len);
-        for (int i = 0; i < data_len; i++) {
-            cmd.writeInt(data_buf[i]);
+        cmd.writeInt(len);
+        for (int i = 0; i < len; i++) {
+            cmd.writeInt(buf[bufOffset + i] & 0xff);
         }
 
-        sendCmdToTv(cmd, r);
-        int ret = r.readInt();;
+        boolean ok = (sendCmdToTv(cmd, r) == 0) && (r.readInt() == 0);
         cmd.recycle();
         r.recycle();
-        return ret;
+        return ok;
     }
 
     /**
-     * @Function: SSMReadNByte
-     * @Description: Read one byte from ssm
-     * @Param: offset pos in ssm for the bytes, data_len how many bytes, data_buf n bytes read buffer
+     * @Function: SSMReadBlock
+     * @Description: Read a contiguous block from ssm, from the memory mirror if enabled
+     * @Param: offset pos in ssm, buf read buffer, bufOffset start in buf, len how many bytes
      * @Return: 0 success, -1 fail
      */
-    public int SSMReadNBytes(int offset, int data_len, int data_buf[]) {
-        libtv_log_open();
-        int i = 0, tmp_data_len = 0, ret = 0;
-        Parcel cmd = Parcel.obtain();
-        Parcel r = Parcel.obtain();
+    public int SSMReadBlock(int offset, byte[] buf, int bufOffset, int len) {
+        synchronized (timed(mSsmLock)) {
+            boolean ok = (mSsmMirror != null) ? mSsmMirror.read(offset, buf, bufOffset, len)
+                    : ssmReadDirect(offset, buf, bufOffset, len);
+            return ok ? 0 : -1;
+        }
+    }
 
-        cmd.writeInt(SSM_READ_N_BYTES);
-        cmd.writeInt(offset);
-        cmd.writeInt(data_len);
+    /**
+     * @Function: SSMWriteBlock
+     * @Description: Write a contiguous block to ssm. With the memory mirror enabled the data
+     *               is written back SSM_FLUSH_DELAY_MS later on the flush thread, and
+     *               retried there until it succeeds, or at SSMFlush
+     * @Param: offset pos in ssm, buf write buffer, bufOffset start in buf, len how many bytes
+     * @Return: 0 success, -1 fail
+     */
+    public int SSMWriteBlock(int offset, byte[] buf, int bufOffset, int len) {
+        synchronized (timed(mSsmLock)) {
+            if (mSsmMirror == null) {
+                return ssmWriteDirect(offset, buf, bufOffset, len) ? 0 : -1;
+            }
+            if (!mSsmMirror.write(offset, buf, bufOffset, len)) {
+                return -1;
+            }
+            if (!mSsmFlushPosted) {
+                mSsmFlushPosted = true;
+                mSsmFlushHandler.postDelayed(mSsmFlushTask, SSM_FLUSH_DELAY_MS);
+            }
+            return 0;
+        }
+    }
 
-        sendCmdToTv(cmd, r);
+    /**
+     * @Function: SSMFlush
+     * @Description: Write the ranges changed in the memory mirror back to ssm,
+     *               each contiguous range in one block
+     * @Param:
+     * @Return: 0 success, -1 fail, failed ranges are kept and retried on the flush thread
+     */
+    public int SSMFlush() {
+        synchronized (timed(mSsmLock)) {
+            if (mSsmMirror == null) {
+                return 0;
+            }
+            if (mSsmMirror.flush()) {
+                mSsmFlushHandler.removeCallbacks(mSsmFlushTask);
+                mSsmFlushPosted = false;
+                return 0;
+            }
+            if (!mSsmFlushPosted) {
+                mSsmFlushPosted = true;
+                mSsmFlushHandler.postDelayed(mSsmFlushTask, SSM_FLUSH_RETRY_MS);
+            }
+            return -1;
+        }
+    }
 
-        data_len = r.readInt();
-        for (i = 0; i < data_len; i++) {
-            data_buf[i] = r.readInt();
+    /**
+     * @Function: setSsmMirrorEnabled
+     * @Description: Serve SSMReadBlock/SSMReadNBytes from a memory mirror of the first size
+     *               bytes of ssm and write changes back in blocks. Enabling fails if the
+     *               first page cannot be read. Disabling flushes first and fails, keeping
+     *               the mirror, if some data could not be written back
+     * @Param: enable true to enable, size ssm bytes to mirror, ignored when disabling
+     * @Return: 0 success, -1 fail
+     */
+    public int setSsmMirrorEnabled(boolean enable, int size) {
+        synchronized (timed(mSsmLock)) {
+            if (enable) {
+                if (mSsmMirror != null && mSsmMirror.getSize() == size) {
+                    return 0;
+                }
+                if (mSsmMirror != null && SSMFlush() != 0) {
+                    return -1;
+                }
+                if (size <= 0) {
+                    return -1;
+                }
+                TvSsmMirror mirror = new TvSsmMirror(mSsmBackend, size);
+                byte[] probe = new byte[Math.min(size, TvSsmMirror.PAGE_SIZE)];
+                if (!mirror.read(0, probe, 0, probe.length)) {
+                    Log.w(TAG, "setSsmMirrorEnabled: ssm block read not available");
+                    return -1;
+                }
+                if (mSsmFlushThread == null) {
+                    mSsmFlushThread = new HandlerThread("TvSsmFlush");
+                    mSsmFlushThread.start();
+                    mSsmFlushHandler = new Handler(mSsmFlushThread.getLooper());
+                }
+                mSsmMirror = mirror;
+            } else if (mSsmMirror != null) {
+                if (SSMFlush() != 0) {
+                    Log.e(TAG, "setSsmMirrorEnabled: flush failed, mirror kept");
+                    return -1;
+                }
+                mSsmMirror = null;
+            }
+            return 0;
         }
+    }
 
-        ret = r.readInt();
-        cmd.recycle();
-        r.recycle();
+    /**
+     * @Function: SSMWriteNByte
+     * @Description: Write n bytes to ssm
+     * @Param: offset pos in ssm for the bytes, data_len how many bytes, data_buf n bytes write buffer
+     * @Return: 0 success, -1 fail
+     */
+    public int SSMWriteNBytes(int offset, int data_len, int data_buf[]) {
+        byte[] bytes = new byte[data_len];
+        for (int i = 0; i < data_len; i++) {
+            bytes[i] = (byte) data_buf[i];
+        }
+        return SSMWriteBlock(offset, bytes, 0, data_len);
+    }
+
+    /**
+     * @Function: SSMReadNByte
+     * @Description: Read one byte from ssm
+     * @Param: offset pos in ssm for the bytes, data_len how many bytes, data_buf n bytes read buffer
+     * @Return: 0 success, -1 fail
+     */
+    public int SSMReadNBytes(int offset, int data_len, int data_buf[]) {
+        byte[] bytes = new byte[data_len];
+        int ret = SSMReadBlock(offset, bytes, 0, data_len);
+        if (ret == 0) {
+            for (int i = 0; i < data_len; i++) {
+                data_buf[i] = bytes[i] & 0xff;
+            }
+        }
         return ret;
     }
 
@@ -2999,7 +3830,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int SSMSaveMacAddress(int data_buf[]) {
-        synchronized (mLock) {
+        synchronized (timed(mSsmLock)) {
             try {
                 return mProxy.saveMacAddress(data_buf);
             } catch (RemoteException e) {
@@ -3016,7 +3847,7 @@ public class TvControlManager {
      * @Return: 0 success, -1 fail
      */
     public int SSMReadMacAddress(int data_buf[]) {
-        synchronized (mLock) {
+        synchronized (timed(mSsmLock)) {
             try {
                 mProxy.readMacAddress((int ret, final int[] v) -> {
                                 if (Result.OK == ret) {
@@ -3988,7 +4819,7 @@ public class TvControlManager {
     }
 
     public int DtvScan(int mode, int type, int freq, int para1, int para2) {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 SetTvCurrentLanguage(TvMultilingualText.getLocalLang());
                 return mProxy.dtvScan(mode, type, freq, freq, para1, para2);
@@ -4034,7 +4865,7 @@ public class TvControlManager {
     }
 
     public int AtvAutoScan(int videoStd, int audioStd, int storeType, int procMode) {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 SetTvCurrentLanguage(TvMultilingualText.getLocalLang());
                 return mProxy.atvAutoScan(videoStd, audioStd, storeType, procMode);
@@ -4072,7 +4903,7 @@ public class TvControlManager {
      */
     public int AtvManualScan(int startFreq, int endFreq, int videoStd,
             int audioStd) {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 SetTvCurrentLanguage(TvMultilingualText.getLocalLang());
                 return 0/*mProxy.atvManualScan(startFreq, endFreq, videoStd, audioStd)*/;
@@ -4084,7 +4915,7 @@ public class TvControlManager {
     }
 
     public int AtvDtvPauseScan() {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.pauseScan();
             } catch (RemoteException e) {
@@ -4095,7 +4926,7 @@ public class TvControlManager {
     }
 
     public int AtvDtvResumeScan() {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.resumeScan();
             } catch (RemoteException e) {
@@ -4106,7 +4937,7 @@ public class TvControlManager {
     }
 
     public int OpenDevForScan(int type) {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.operateDeviceForScan(type);
             } catch (RemoteException e) {
@@ -4120,7 +4951,7 @@ public class TvControlManager {
     public static final int ATV_DTV_SCAN_STATUS_PAUSED_USER = 2;
 
     public int AtvDtvGetScanStatus() {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.atvdtvGetScanStatus();
             } catch (RemoteException e) {
@@ -4136,7 +4967,7 @@ public class TvControlManager {
     }
 
     public int DtvSetTextCoding(String coding) {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.setDvbTextCoding(coding);
             } catch (RemoteException e) {
@@ -4165,7 +4996,7 @@ public class TvControlManager {
      * @Return: true: enable; false: disable;
      */
     public boolean IsAllmInfo() {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 int value = mProxy.GetAllmInfo();
                 Log.d(TAG, "IsAllmInfo:" + value);
@@ -4188,13 +5019,15 @@ public class TvControlManager {
      * @Return: 0 ok or -1 error
      */
     public int SetVRREnable(int enable) {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
-                return mProxy.SetVRREnable(enable);
+                return updateCachedSetting(mPictureSettingsCache, CACHE_KEY_VRR_ENABLE, enable,
+                        mProxy.SetVRREnable(enable));
             } catch (Exception e) {
                 Log.e(TAG, "SetVRREnable:" + e);
             }
         }
+        mPictureSettingsCache.remove(CACHE_KEY_VRR_ENABLE);
         return -1;
     }
 
@@ -4205,9 +5038,18 @@ public class TvControlManager {
      * @Return: 1: enable ; 0: disable ; -1: fail
      */
     public int GetVRREnable() {
-        synchronized (mLock) {
+        int value = mPictureSettingsCache.get(CACHE_KEY_VRR_ENABLE);
+        if (value != TvSettingsCache.MISS) {
+            return value;
+        }
+        long generation = mPictureSettingsCache.generation();
+        synchronized (timed(mSourceLock)) {
             try {
-                return mProxy.GetVRREnable();
+                value = mProxy.GetVRREnable();
+                if (value != -1) {
+                    mPictureSettingsCache.fill(CACHE_KEY_VRR_ENABLE, value, generation);
+                }
+                return value;
             } catch (Exception e) {
                 Log.e(TAG, "GetVRREnable:" + e);
             }
@@ -4231,7 +5073,7 @@ public class TvControlManager {
      * @Return: refer to  Vrr Mode, -1 means error.
      */
     public int GetVRRMode() {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.GetVRRMode();
             } catch (Exception e) {
@@ -4271,21 +5113,30 @@ public class TvControlManager {
 
     //enable: 0  is disable , 1  is enable.      when enable it , can black video for switching program
     public int setBlackoutEnable(int enable, int isSave){
-        synchronized (mLock) {
+        synchronized (timed(mPictureLock)) {
             try {
-                return mProxy.setBlackoutEnable(enable, isSave);
+                return updateCachedSetting(mPictureSettingsCache, CACHE_KEY_BLACKOUT_ENABLE, enable,
+                        mProxy.setBlackoutEnable(enable, isSave));
             } catch (RemoteException e) {
                 Log.e(TAG, "setBlackoutEnable:" + e);
             }
         }
+        mPictureSettingsCache.remove(CACHE_KEY_BLACKOUT_ENABLE);
         return -1;
     }
 
     //ref to setBlackoutEnable fun
     public int getBlackoutEnable() {
-        synchronized (mLock) {
+        int value = mPictureSettingsCache.get(CACHE_KEY_BLACKOUT_ENABLE);
+        if (value != TvSettingsCache.MISS) {
+            return value;
+        }
+        long generation = mPictureSettingsCache.generation();
+        synchronized (timed(mPictureLock)) {
             try {
-                return mProxy.getBlackoutEnable();
+                value = mProxy.getBlackoutEnable();
+                mPictureSettingsCache.fill(CACHE_KEY_BLACKOUT_ENABLE, value, generation);
+                return value;
             } catch (RemoteException e) {
                 Log.e(TAG, "getBlackoutEnable:" + e);
             }
@@ -4410,7 +5261,7 @@ public class TvControlManager {
      * @Return: 0 or -1
      */
     public int ATVGetMinMaxFreq(int dataBuf[]) {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             Mutable<Integer> minFreqV = new Mutable<>();
             Mutable<Integer> maxFreqV = new Mutable<>();
             Mutable<Integer> retV = new Mutable<>();
@@ -4466,7 +5317,7 @@ public class TvControlManager {
     public ArrayList<FreqList> DTVGetScanFreqList(int mode) {
         libtv_log_open();
         Log.d(TAG, "TvControlManager TVGetScanFreqList" + mode);
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 ArrayList<FreqList> hidlFreqList = new ArrayList<FreqList>();
                 hidlFreqList = mProxy.dtvGetScanFreqListMode(mode);
@@ -4554,6 +5405,56 @@ public class TvControlManager {
         mSubtitleListener = l;
     }
     //scanner
+    private static final int SCANNER_EVENT_POOL_SIZE = 16;
+    private final ScannerEvent[] mScannerEventPool = new ScannerEvent[SCANNER_EVENT_POOL_SIZE];
+    private int mScannerEventPoolCount = 0;
+    private volatile boolean mScannerEventPoolEnabled = false;
+
+    /**
+     * @Function: setScannerEventPoolEnabled
+     * @Description: Reuse ScannerEvent objects across scan events. Only enable it when every
+     *               scanner/store listener that keeps an event past its callback calls
+     *               ScannerEvent.retain() and ScannerEvent.recycle().
+     * @Param: enable true to reuse events, false to allocate a new event each time
+     */
+    public void setScannerEventPoolEnabled(boolean enable) {
+        mScannerEventPoolEnabled = enable;
+        if (!enable) {
+            synchronized (mScannerEventPool) {
+                Arrays.fill(mScannerEventPool, null);
+                mScannerEventPoolCount = 0;
+            }
+        }
+    }
+
+    private ScannerEvent obtainScannerEvent() {
+        ScannerEvent ev = null;
+        if (mScannerEventPoolEnabled) {
+            synchronized (mScannerEventPool) {
+                if (mScannerEventPoolCount > 0) {
+                    ev = mScannerEventPool[--mScannerEventPoolCount];
+                    mScannerEventPool[mScannerEventPoolCount] = null;
+                }
+            }
+        }
+        if (ev == null) {
+            ev = new ScannerEvent();
+        }
+        ev.mRefCount.set(1);
+        return ev;
+    }
+
+    private void releaseScannerEvent(ScannerEvent ev) {
+        if (!mScannerEventPoolEnabled) {
+            return;
+        }
+        synchronized (mScannerEventPool) {
+            if (mScannerEventPoolCount < SCANNER_EVENT_POOL_SIZE) {
+                mScannerEventPool[mScannerEventPoolCount++] = ev;
+            }
+        }
+    }
+
     public void setScannerListener(ScannerEventListener l) {
         libtv_log_open();
         mScannerListener = l;
@@ -4648,6 +5549,37 @@ public class TvControlManager {
         public String vct;
         public int programs_in_pat;
         public int pat_ts_id;
+
+        private final AtomicInteger mRefCount = new AtomicInteger(0);
+
+        /**
+         * Keep this event valid after the listener call returns, e.g. when it is
+         * handed to another thread. Each retain() needs a matching recycle().
+         */
+        public void retain() {
+            mRefCount.incrementAndGet();
+        }
+
+        /**
+         * Release a reference; the last one returns the event to the pool when
+         * pooling is enabled, after which its fields must not be used.
+         */
+        public void recycle() {
+            if (mRefCount.decrementAndGet() > 0) {
+                return;
+            }
+            fineTune = 0;
+            releaseScannerEvent(this);
+        }
+
+        /**
+         * Detach the lcn info so it stays valid after this event is recycled.
+         */
+        public ScannerLcnInfo takeLcnInfo() {
+            ScannerLcnInfo info = lcnInfo;
+            lcnInfo = null;
+            return info;
+        }
     }
 
     public class ScannerLcnInfo {
@@ -4777,7 +5709,7 @@ public class TvControlManager {
             Log.d(TAG, "abandon updateRRTRes,because current status is : " + rrt5XmlLoadStatus);
             return -1;
         } else {
-            synchronized (mLock) {
+            synchronized (timed(mDtvLock)) {
                 try {
                     Log.d(TAG, "updateRRTRes,freq: " + freq+",module:"+modulation+",mode:"+mode);
                     return mProxy.updateRRT(freq, modulation, mode);
@@ -4797,7 +5729,7 @@ public class TvControlManager {
     }
 
     public RrtSearchInfo SearchRrtInfo(int rating_region_id, int dimension_id, int value_id, int programid) {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             RrtSearchInfo info = new RrtSearchInfo();
             try {
                 RRTSearchInfo tempInfo= mProxy.searchRrtInfo(rating_region_id, dimension_id, value_id, programid);
@@ -4916,7 +5848,7 @@ public class TvControlManager {
     }
 
     public int DtvStopScan() {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.dtvStopScan();
             } catch (RemoteException e) {
@@ -4926,6 +5858,22 @@ public class TvControlManager {
         return -1;
     }
 
+    /**
+     * @Function: getSignalSampler
+     * @Description: Get the shared dtv signal quality sampler, so screens showing signal
+     *               quality share one polling stream instead of each polling tvserver
+     * @Param:
+     * @Return: the sampler, polling while it has listeners
+     */
+    public TvSignalSampler getSignalSampler() {
+        synchronized (mSignalSamplerLock) {
+            if (mSignalSampler == null) {
+                mSignalSampler = new TvSignalSampler(this);
+            }
+            return mSignalSampler;
+        }
+    }
+
     public int DtvGetSignalSNR() {
         return sendCmd(DTV_GET_SNR);
     }
@@ -4935,7 +5883,7 @@ public class TvControlManager {
     }
 
     public int DtvGetSignalStrength() {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.dtvGetSignalStrength();
             } catch (RemoteException e) {
@@ -5000,7 +5948,7 @@ public class TvControlManager {
      * @Return:
      */
     public int DtvSetAudioChannleMod(int audioChannelMod) {
-        synchronized (mLock) {
+        synchronized (timed(mAudioLock)) {
             try {
                 return mProxy.dtvSetAudioChannleMod(audioChannelMod);
             } catch (RemoteException e) {
@@ -5035,6 +5983,23 @@ public class TvControlManager {
         public int evtId;
     }
 
+    /**
+     * @Function: getEpgRangeQuery
+     * @Description: Get the shared EPG range query over the TvProvider Programs table, fills
+     *               pooled EpgInfoEvent objects page by page. Queries on it are serialized,
+     *               a long guide query blocks other users
+     * @Param: context used to reach the TvProvider
+     * @Return: the query, create an own TvEpgRangeQuery to query from several threads at once
+     */
+    public TvEpgRangeQuery getEpgRangeQuery(Context context) {
+        synchronized (mEpgRangeQueryLock) {
+            if (mEpgRangeQuery == null) {
+                mEpgRangeQuery = new TvEpgRangeQuery(context, this);
+            }
+            return mEpgRangeQuery;
+        }
+    }
+
     public EpgInfoEvent DtvEpgInfoPointInTime(int progId, long iUtcTime) {
         libtv_log_open();
         Parcel cmd = Parcel.obtain();
@@ -5085,7 +6050,7 @@ public class TvControlManager {
     }
 
     public int DtvSwitchAudioTrack(int audio_pid, int audio_format, int audio_param) {
-        synchronized (mLock) {
+        synchronized (timed(mAudioLock)) {
             try {
                 return mProxy.DtvSwitchAudioTrack3(audio_pid, audio_format,audio_param);
             } catch (RemoteException e) {
@@ -5096,7 +6061,7 @@ public class TvControlManager {
     }
 
     public int DtvSwitchAudioTrack(int prog_id, int audio_track_id) {
-        synchronized (mLock) {
+        synchronized (timed(mAudioLock)) {
             try {
                 return mProxy.DtvSwitchAudioTrack(prog_id, audio_track_id);
             } catch (RemoteException e) {
@@ -5107,7 +6072,7 @@ public class TvControlManager {
     }
 
     public int DtvSetAudioAD(int enable, int audio_pid, int audio_format) {
-        synchronized (mLock) {
+        synchronized (timed(mAudioLock)) {
             try {
                 return mProxy.DtvSetAudioAD(enable, audio_pid, audio_format);
             } catch (RemoteException e) {
@@ -5129,7 +6094,7 @@ public class TvControlManager {
     }
 
     public VideoFormatInfo DtvGetVideoFormatInfo() {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             VideoFormatInfo pVideoFormatInfo = new VideoFormatInfo();
             try {
                 FormatInfo  formatInfo= mProxy.dtvGetVideoFormatInfo();
@@ -5593,7 +6558,7 @@ public class TvControlManager {
     }
 
     public int TvScan(FEParas fe, ScanParas scan) {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 SetTvCurrentLanguage(TvMultilingualText.getLocalLang());
                 return mProxy.Scan(fe.toString(), scan.toString());
@@ -5605,7 +6570,7 @@ public class TvControlManager {
     }
 
     public int TvSetFrontEnd(FEParas fe, boolean force) {
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.tvSetFrontEnd(fe.toString(), force? 1 : 0);
             } catch (RemoteException e) {
@@ -5652,7 +6617,7 @@ public class TvControlManager {
     public int SetFrontendParms(tv_fe_type_e feType, int freq, int vStd, int aStd, int vfmt, int soundsys, int p1, int p2) {
         //int val[] = new int[]{feType.toInt(), freq, vStd, aStd, vfmt, soundsys, p1, p2};
         //return sendCmdIntArray(SET_FRONTEND_PARA, val);
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.tvSetFrontendParms(feType.toInt(), freq, vStd, aStd, vfmt, soundsys, p1, p2);
             } catch (RemoteException e) {
@@ -6547,6 +7512,30 @@ public class TvControlManager {
         mCloseCaptionListener = l;
     }
 
+    /**
+     * @Function: getCloseCaptionBuffer
+     * @Description: Get the ring buffer that closed caption packets are queued in
+     * @Param:
+     * @Return: buffer to drain with TvCloseCaptionBuffer.drain()
+     */
+    public TvCloseCaptionBuffer getCloseCaptionBuffer() {
+        return mCloseCaptionBuffer;
+    }
+
+    /**
+     * @Function: setCloseCaptionBufferEnabled
+     * @Description: Keep closed caption packets queued until the consumer drains them,
+     *               otherwise each packet is only handed to the CloseCaptionListener
+     * @Param: enable true to queue packets for getCloseCaptionBuffer()
+     * @Return:
+     */
+    public void setCloseCaptionBufferEnabled(boolean enable) {
+        mCloseCaptionBufferEnabled = enable;
+        if (!enable) {
+            mCloseCaptionBuffer.clear();
+        }
+    }
+
     public enum SourceInput {
         TV(0),
         AV1(1),
@@ -6739,7 +7728,7 @@ public class TvControlManager {
      * @param edge validly when {@param is_out} is true, 1/0 high/low
      */
     public int handleGPIO(String portName, boolean isOut, int edge) {
-          synchronized (mLock) {
+          synchronized (timed(mLock)) {
             try {
                 return mProxy.handleGPIO(portName, isOut ? 1 : 0, edge);
             } catch (RemoteException e) {
@@ -6750,7 +7739,7 @@ public class TvControlManager {
     }
 
     public VideoFormatInfo GetHdmiFormatInfo() {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             VideoFormatInfo pVideoFormatInfo = new VideoFormatInfo();
             try {
                 FormatInfo  formatInfo= mProxy.getHdmiFormatInfo();
@@ -6771,7 +7760,7 @@ public class TvControlManager {
      * @param enable true/fase means enable/disable
      */
     public int setLcdEnable(boolean enable) {
-        synchronized (mLock) {
+        synchronized (timed(mPictureLock)) {
             try {
                 return mProxy.setLcdEnable(enable ? 1 : 0);
             } catch (RemoteException e) {
@@ -6807,7 +7796,7 @@ public class TvControlManager {
     public static final int RECORDING_CMD_START = 2;
 
     public int sendRecordingCmd(int cmd, String id, String param) {
-        synchronized (mLock) {
+        synchronized (timed(mRecordLock)) {
             try {
                 Log.d(TAG, "sendRecordingCmd");
                 return mProxy.sendRecordingCmd(cmd, id, (param == null) ? "" : param);
@@ -6838,7 +7827,7 @@ public class TvControlManager {
     public static final int PLAY_CMD_SETPARAM = 5;
 
     public int sendPlayCmd(int cmd, String id, String param) {
-        synchronized (mLock) {
+        synchronized (timed(mRecordLock)) {
             try {
                 return mProxy.sendPlayCmd(cmd, id, (param == null) ? "" : param);
             } catch (RemoteException e) {
@@ -6875,7 +7864,7 @@ public class TvControlManager {
     }
 
     public int setDeviceIdForCec(int DeviceId) {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.setDeviceIdForCec(DeviceId);
             } catch (RemoteException e) {
@@ -6893,7 +7882,7 @@ public class TvControlManager {
 	* @Return: 0 ok or -1 error
 	*/
 	public int setScreenColorForSignalChange(int screenColor, int isSave) {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.setScreenColorForSignalChange(screenColor, isSave);
             } catch (RemoteException e) {
@@ -6909,7 +7898,7 @@ public class TvControlManager {
      * @Return: 0 is black screen; 1 is blue screen;
      */
 	public int getScreenColorForSignalChange() {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.getScreenColorForSignalChange();
             } catch (RemoteException e) {
@@ -6921,7 +7910,7 @@ public class TvControlManager {
 	}
 
   public void GetIwattRegs() {
-        synchronized (mLock) {
+        synchronized (timed(mPictureLock)) {
             try {
                 mProxy.getIwattRegs();
             } catch (RemoteException e) {
@@ -6931,7 +7920,7 @@ public class TvControlManager {
     }
 
     public int SetSameSourceEnable(int IsEnable) {
-        synchronized (mLock) {
+        synchronized (timed(mSourceLock)) {
             try {
                 return mProxy.setSameSourceEnable(IsEnable);
             } catch (RemoteException e) {
@@ -6955,7 +7944,7 @@ public class TvControlManager {
 
     public BasicVdecStatusInfo getBasicVdecSTatusInfo(int vdecId) {
 
-        synchronized (mLock) {
+        synchronized (timed(mPictureLock)) {
             BasicVdecStatusInfo vInfo = new BasicVdecStatusInfo();
             try {
                 BasicVdecState info = mProxy.getBasicVdecStatusInfo(vdecId);
@@ -6976,13 +7965,28 @@ public class TvControlManager {
         return null;
     }
 
+    /**
+     * @Function: getVdecHealthMonitor
+     * @Description: Get the shared decoder health monitor built on getBasicVdecSTatusInfo
+     * @Param:
+     * @Return: the monitor, add vdecs and call start() to begin sampling
+     */
+    public TvVdecHealthMonitor getVdecHealthMonitor() {
+        synchronized (mVdecHealthMonitorLock) {
+            if (mVdecHealthMonitor == null) {
+                mVdecHealthMonitor = new TvVdecHealthMonitor(this);
+            }
+            return mVdecHealthMonitor;
+        }
+    }
+
     public String request(String resource, String jsonParameters) {
         String invalidRet = "{\"ret\":1}";
         if (resource == null || jsonParameters == null) {
             return invalidRet;
         }
 
-        synchronized (mLock) {
+        synchronized (timed(mDtvLock)) {
             try {
                 return mProxy.request(resource, jsonParameters);
             } catch (Exception e) {
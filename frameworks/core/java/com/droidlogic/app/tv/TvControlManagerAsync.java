@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import android.util.Log;
+
+import com.droidlogic.app.tv.TvControlManager.FEParas;
+import com.droidlogic.app.tv.TvControlManager.ScanParas;
+import com.droidlogic.app.tv.TvControlManager.SourceInput;
+
+/**
+ * Non-blocking facade for the expensive TvControlManager calls.
+ * Each domain runs on its own single worker thread, so calls of one domain
+ * complete in submission order while different domains run in parallel.
+ * Every domain queue is bounded; a call submitted to a full queue completes
+ * exceptionally with RejectedExecutionException.
+ */
+public class TvControlManagerAsync {
+    private static final String TAG = "TvControlManagerAsync";
+    private static final int QUEUE_CAPACITY = 32;
+
+    private static TvControlManagerAsync mInstance;
+
+    private final TvControlManager mTvControlManager;
+    private final ThreadPoolExecutor mSourceExecutor;
+    private final ThreadPoolExecutor mDtvExecutor;
+
+    public static synchronized TvControlManagerAsync getInstance() {
+        if (null == mInstance) {
+            mInstance = new TvControlManagerAsync(TvControlManager.getInstance());
+        }
+        return mInstance;
+    }
+
+    public TvControlManagerAsync(TvControlManager manager) {
+        mTvControlManager = manager;
+        mSourceExecutor = createDomainExecutor("source");
+        mDtvExecutor = createDomainExecutor("dtv");
+    }
+
+    private static ThreadPoolExecutor createDomainExecutor(final String domain) {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, TAG + "-" + domain);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    private <T> CompletableFuture<T> submit(ThreadPoolExecutor executor, Supplier<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "queue full, reject call:" + e);
+            CompletableFuture<T> failed = new CompletableFuture<T>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    public CompletableFuture<Integer> SetSourceInput(SourceInput srcInput) {
+        return submit(mSourceExecutor, () -> mTvControlManager.SetSourceInput(srcInput));
+    }
+
+    public CompletableFuture<Integer> SetSourceInput(SourceInput srcInput, SourceInput virtualSrcInput) {
+        return submit(mSourceExecutor, () -> mTvControlManager.SetSourceInput(srcInput, virtualSrcInput));
+    }
+
+    public CompletableFuture<Integer> LoadEdidData(int isNeedBlackScreen, int isDolbyVisionEnable) {
+        return submit(mSourceExecutor, () -> mTvControlManager.LoadEdidData(isNeedBlackScreen, isDolbyVisionEnable));
+    }
+
+    public CompletableFuture<TvInSignalInfo> GetCurrentSignalInfo() {
+        return submit(mSourceExecutor, () -> mTvControlManager.GetCurrentSignalInfo());
+    }
+
+    public CompletableFuture<Integer> TvScan(FEParas fe, ScanParas scan) {
+        return submit(mDtvExecutor, () -> mTvControlManager.TvScan(fe, scan));
+    }
+
+    public CompletableFuture<Integer> PlayDTVProgram(int mode, int freq, int para1, int para2, int vid, int vfmt,
+            int aid, int afmt, int pcr, int audioCompetition) {
+        return submit(mDtvExecutor, () -> mTvControlManager.PlayDTVProgram(mode, freq, para1, para2, vid, vfmt,
+                aid, afmt, pcr, audioCompetition));
+    }
+
+    public CompletableFuture<Integer> PlayDTVProgram(FEParas fe, int vid, int vfmt, int aid, int afmt, int pcr,
+            int audioCompetition) {
+        return submit(mDtvExecutor, () -> mTvControlManager.PlayDTVProgram(fe, vid, vfmt, aid, afmt, pcr,
+                audioCompetition));
+    }
+
+    public CompletableFuture<String> request(String resource, String jsonParameters) {
+        return submit(mDtvExecutor, () -> mTvControlManager.request(resource, jsonParameters));
+    }
+
+    /**
+     * Stop accepting calls; queued calls still run.
+     */
+    public void shutdown() {
+        synchronized (TvControlManagerAsync.class) {
+            if (mInstance == this) {
+                mInstance = null;
+            }
+        }
+        mSourceExecutor.shutdown();
+        mDtvExecutor.shutdown();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.RemoteException;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import vendor.amlogic.hardware.tvserver.V1_0.ITvServer;
+
+/**
+ * Immutable snapshot of the per-country scan capabilities from the tvserver
+ * config, i.e. everything the GetTv*(country_code) calls return. It is read
+ * from tvserver once and persisted to TvControlDataManager, keyed by the build
+ * fingerprint, because the config only changes with the system image.
+ */
+public final class TvCountryCapabilities {
+    private static final String TAG = "TvCountryCapabilities";
+    private static final String KEY_STORE = "tv_country_capabilities";
+
+    private static final String K_VERSION = "version";
+    private static final String K_SUPPORT_COUNTRIES = "support_countries";
+    private static final String K_DEFAULT_COUNTRY = "default_country";
+    private static final String K_COUNTRIES = "countries";
+    private static final String K_NAME = "name";
+    private static final String K_SEARCH_MODE = "search_mode";
+    private static final String K_DTV_SUPPORT = "dtv_support";
+    private static final String K_DTV_SYSTEM = "dtv_system";
+    private static final String K_ATV_SUPPORT = "atv_support";
+    private static final String K_ATV_COLOR_SYSTEM = "atv_color_system";
+    private static final String K_ATV_SOUND_SYSTEM = "atv_sound_system";
+    private static final String K_ATV_MIN_MAX_FREQ = "atv_min_max_freq";
+    private static final String K_ATV_STEP_SCAN = "atv_step_scan";
+
+    public static final class Entry {
+        public final String name;
+        public final String searchMode;
+        public final boolean dtvSupport;
+        public final String dtvSystem;
+        public final boolean atvSupport;
+        public final String atvColorSystem;
+        public final String atvSoundSystem;
+        public final String atvMinMaxFreq;
+        public final boolean atvStepScan;
+
+        Entry(String name, String searchMode, boolean dtvSupport, String dtvSystem, boolean atvSupport,
+                String atvColorSystem, String atvSoundSystem, String atvMinMaxFreq, boolean atvStepScan) {
+            this.name = name;
+            this.searchMode = searchMode;
+            this.dtvSupport = dtvSupport;
+            this.dtvSystem = dtvSystem;
+            this.atvSupport = atvSupport;
+            this.atvColorSystem = atvColorSystem;
+            this.atvSoundSystem = atvSoundSystem;
+            this.atvMinMaxFreq = atvMinMaxFreq;
+            this.atvStepScan = atvStepScan;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject obj = new JSONObject();
+            putString(obj, K_NAME, name);
+            putString(obj, K_SEARCH_MODE, searchMode);
+            obj.put(K_DTV_SUPPORT, dtvSupport);
+            putString(obj, K_DTV_SYSTEM, dtvSystem);
+            obj.put(K_ATV_SUPPORT, atvSupport);
+            putString(obj, K_ATV_COLOR_SYSTEM, atvColorSystem);
+            putString(obj, K_ATV_SOUND_SYSTEM, atvSoundSystem);
+            putString(obj, K_ATV_MIN_MAX_FREQ, atvMinMaxFreq);
+            obj.put(K_ATV_STEP_SCAN, atvStepScan);
+            return obj;
+        }
+
+        static Entry fromJson(JSONObject obj) {
+            return new Entry(getString(obj, K_NAME), getString(obj, K_SEARCH_MODE),
+                    obj.optBoolean(K_DTV_SUPPORT), getString(obj, K_DTV_SYSTEM),
+                    obj.optBoolean(K_ATV_SUPPORT), getString(obj, K_ATV_COLOR_SYSTEM),
+                    getString(obj, K_ATV_SOUND_SYSTEM), getString(obj, K_ATV_MIN_MAX_FREQ),
+                    obj.optBoolean(K_ATV_STEP_SCAN));
+        }
+    }
+
+    // keep null values null across save() and load(), optString() would turn them into ""
+    private static void putString(JSONObject obj, String key, String value) throws JSONException {
+        obj.put(key, (value == null) ? JSONObject.NULL : value);
+    }
+
+    private static String getString(JSONObject obj, String key) {
+        return obj.isNull(key) ? null : obj.optString(key);
+    }
+
+    private final String mSupportCountries;
+    private final String mDefaultCountry;
+    private final Map<String, Entry> mEntries;
+
+    private TvCountryCapabilities(String supportCountries, String defaultCountry, Map<String, Entry> entries) {
+        mSupportCountries = supportCountries;
+        mDefaultCountry = defaultCountry;
+        mEntries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * @return comma separated country codes, as GetTVSupportCountries()
+     */
+    public String getSupportCountries() {
+        return mSupportCountries;
+    }
+
+    public String getDefaultCountry() {
+        return mDefaultCountry;
+    }
+
+    /**
+     * @return capabilities of the country, null if it is not in the table
+     */
+    public Entry get(String countryCode) {
+        return (countryCode == null) ? null : mEntries.get(countryCode);
+    }
+
+    public Map<String, Entry> getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * Read the whole table from tvserver. Any failed call aborts the read, so a
+     * partial table is never returned, cached or persisted.
+     * @return the table, null if tvserver reports no supported country
+     */
+    static TvCountryCapabilities fetch(ITvServer proxy) throws RemoteException {
+        String supportCountries = proxy.getTvSupportCountries();
+        if (TextUtils.isEmpty(supportCountries)) {
+            return null;
+        }
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        for (String code : supportCountries.split(",")) {
+            if (TextUtils.isEmpty(code) || entries.containsKey(code)) {
+                continue;
+            }
+            entries.put(code, new Entry(proxy.getTvCountryName(code), proxy.getTvSearchMode(code),
+                    proxy.getTvDtvSupport(code), proxy.getTvDtvSystem(code),
+                    proxy.getTvAtvSupport(code), proxy.getTvAtvColorSystem(code),
+                    proxy.getTvAtvSoundSystem(code), proxy.getTvAtvMinMaxFreq(code),
+                    proxy.getTvAtvStepScan(code)));
+        }
+        return new TvCountryCapabilities(supportCountries, proxy.getTvDefaultCountry(), entries);
+    }
+
+    /**
+     * @return the persisted table, null if none or it was written by another build
+     */
+    static TvCountryCapabilities load(Context context) {
+        String json = TvControlDataManager.getStringValue(context, KEY_STORE, null);
+        if (TextUtils.isEmpty(json)) {
+            return null;
+        }
+        try {
+            JSONObject obj = new JSONObject(json);
+            if (!Build.FINGERPRINT.equals(obj.optString(K_VERSION))) {
+                Log.d(TAG, "persisted table is from another build, ignore");
+                return null;
+            }
+            JSONObject countries = obj.getJSONObject(K_COUNTRIES);
+            Map<String, Entry> entries = new HashMap<String, Entry>();
+            Iterator<String> it = countries.keys();
+            while (it.hasNext()) {
+                String code = it.next();
+                entries.put(code, Entry.fromJson(countries.getJSONObject(code)));
+            }
+            return new TvCountryCapabilities(obj.optString(K_SUPPORT_COUNTRIES),
+                    getString(obj, K_DEFAULT_COUNTRY), entries);
+        } catch (JSONException e) {
+            Log.e(TAG, "load:" + e);
+        }
+        return null;
+    }
+
+    boolean save(Context context) {
+        try {
+            JSONObject countries = new JSONObject();
+            for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+                countries.put(e.getKey(), e.getValue().toJson());
+            }
+            JSONObject obj = new JSONObject();
+            obj.put(K_VERSION, Build.FINGERPRINT);
+            obj.put(K_SUPPORT_COUNTRIES, mSupportCountries);
+            putString(obj, K_DEFAULT_COUNTRY, mDefaultCountry);
+            obj.put(K_COUNTRIES, countries);
+            return TvControlDataManager.putStringValue(context, KEY_STORE, obj.toString());
+        } catch (JSONException e) {
+            Log.e(TAG, "save:" + e);
+        }
+        return false;
+    }
+}
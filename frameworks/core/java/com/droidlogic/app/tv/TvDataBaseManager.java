@@ -106,22 +106,26 @@ public class TvDataBaseManager {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        TvChannelRepository.notifyLocalChange(null);
     }
 
     public void deleteChannels(String inputId, int frequency) {
-        ArrayList<ChannelInfo> channelMap = getChannelList(inputId, ChannelInfo.COMMON_PROJECTION, null, null);
-        if (channelMap != null) {
-            Iterator<ChannelInfo> iter = channelMap.iterator();
-            while (iter.hasNext()) {
-                ChannelInfo c = iter.next();
-                if (c.getFrequency() == frequency) {
-                    //Log.d(TAG, "delete Frequency c.getDisplayNumber()" + c.getDisplayNumber() + "getId:" + c.getId() + "ChannelInfo.getFrequency()" + c.getFrequency());
-                    deleteChannel(c);
-                }
-            }
+        ArrayList<ChannelInfo> channelMap = getChannelRepository(inputId).getChannelsByFrequency(frequency);
+        for (ChannelInfo c : channelMap) {
+            //Log.d(TAG, "delete Frequency c.getDisplayNumber()" + c.getDisplayNumber() + "getId:" + c.getId() + "ChannelInfo.getFrequency()" + c.getFrequency());
+            deleteChannel(c);
         }
     }
 
+    /**
+     * In-memory channels of the input, indexed by id, LCN, display number,
+     * (onid, tsid, sid) and frequency. Writes made through this class are seen
+     * by the next lookup.
+     */
+    public TvChannelRepository getChannelRepository(String inputId) {
+        return TvChannelRepository.getInstance(mContext, inputId);
+    }
+
     public void deleteAtvOrDtvChannels(boolean isatv) {
         final String atvwhere = Channels.COLUMN_TYPE + "='" + TvContract.Channels.TYPE_PAL +"' or " +
                           Channels.COLUMN_TYPE + "='" + TvContract.Channels.TYPE_NTSC +"' or " +
@@ -142,6 +146,7 @@ public class TvDataBaseManager {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        TvChannelRepository.notifyLocalChange(null);
     }
 
     public void deleteOtherTypeAtvOrDtvChannels(String type, boolean isatv) {
@@ -181,6 +186,7 @@ public class TvDataBaseManager {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        TvChannelRepository.notifyLocalChange(null);
     }
 
     public boolean updateSingleColumn(long id, String columnKey, Object value) {
@@ -208,6 +214,7 @@ public class TvDataBaseManager {
                 }
                 ret = true;
                 mContentResolver.update(channelsUri, values, null, null);
+                TvChannelRepository.notifyLocalChange(channelsUri);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -325,6 +332,7 @@ public class TvDataBaseManager {
                     }
                     if (result != null) {
                         mContentResolver.update(channelsUri, buildSingleChannelInternalProviderData(result), null, null);
+                        TvChannelRepository.notifyLocalChange(channelsUri);
                     }
                 }
             }
@@ -412,6 +420,7 @@ public class TvDataBaseManager {
                 if (found) {
                     Uri uri = TvContract.buildChannelUri(rowId);
                     mContentResolver.update(uri, buildDtvChannelData(channel), null, null);
+                    TvChannelRepository.notifyLocalChange(uri);
                     insertLogo(channel.getLogoUrl(), uri);
                     ret = UPDATE_SUCCESS;
                     break;
@@ -470,6 +479,7 @@ public class TvDataBaseManager {
                 if (found) {
                     Uri uri = TvContract.buildChannelUri(rowId);
                     mContentResolver.update(uri, buildAtvChannelData(channel), null, null);
+                    TvChannelRepository.notifyLocalChange(uri);
                     insertLogo(channel.getLogoUrl(), uri);
                     ret = UPDATE_SUCCESS;
                     break;
@@ -527,6 +537,7 @@ public class TvDataBaseManager {
                     Uri uri = TvContract.buildChannelUri(rowId);
                     channel.setDisplayNumber(cursor.getString(findPosition(projection, Channels.COLUMN_DISPLAY_NUMBER)));
                     mContentResolver.update(uri, buildAtvChannelData(channel), null, null);
+                    TvChannelRepository.notifyLocalChange(uri);
                     insertLogo(channel.getLogoUrl(), uri);
                     ret = UPDATE_SUCCESS;
                     break;
@@ -572,6 +583,7 @@ public class TvDataBaseManager {
                 Uri uri = TvContract.buildChannelUri(toBeUpdated.getId());
                 channel.setDisplayNumber(toBeUpdated.getDisplayNumber());
                 mContentResolver.update(uri, buildAtvChannelData(channel), null, null);
+                TvChannelRepository.notifyLocalChange(uri);
                 insertLogo(channel.getLogoUrl(), uri);
                 ret = UPDATE_SUCCESS;
             } else {
@@ -602,6 +614,7 @@ public class TvDataBaseManager {
         Uri channelsUri = TvContract.buildChannelsUriForInput(channel.getInputId());
         channel.setDisplayNumber(channelNumber);
         Uri uri = mContentResolver.insert(TvContract.Channels.CONTENT_URI, buildDtvChannelData(channel));
+        TvChannelRepository.notifyLocalChange(uri);
         insertLogo(channel.getLogoUrl(), uri);
 
         if (DEBUG)
@@ -620,6 +633,7 @@ public class TvDataBaseManager {
         Uri channelsUri = TvContract.buildChannelsUriForInput(channel.getInputId());
         channel.setDisplayNumber(channelNumber);
         Uri uri = mContentResolver.insert(TvContract.Channels.CONTENT_URI, buildAtvChannelData(channel));
+        TvChannelRepository.notifyLocalChange(uri);
         insertLogo(channel.getLogoUrl(), uri);
 
         if (DEBUG)
@@ -888,6 +902,8 @@ public class TvDataBaseManager {
                 }
             }
         }
+        // renumbering touches the following channels too
+        TvChannelRepository.notifyLocalChange(updateChannelNumber ? null : TvContract.buildChannelUri(channel.getId()));
     }
 
     public void deleteChannelsContinuous(ArrayList<ChannelInfo> channels) {
@@ -895,26 +911,109 @@ public class TvDataBaseManager {
     }
 
     public void deleteChannels(ArrayList<ChannelInfo> channels) {
+        deleteChannels(channels, false);
+    }
+
+    // below the sqlite limit of 999 bound arguments
+    private static final int DELETE_CHUNK_SIZE = 500;
+
+    /**
+     * Delete the channels with one _id IN (...) selection per chunk.
+     * @param updateChannelNumber close the gaps in the display numbers of each
+     *        service type afterwards, in a single pass
+     */
+    public void deleteChannels(ArrayList<ChannelInfo> channels, boolean updateChannelNumber) {
         if (channels.size() <= 0)
             return ;
 
         Uri channelsUri = TvContract.buildChannelsUriForInput(channels.get(0).getInputId());
-        ArrayList<ContentProviderOperation> ops = new ArrayList();
+        int deleteCount = 0;
+        // channels of the chunks deleted in full, the only ones known to be gone
+        ArrayList<ChannelInfo> deleted = new ArrayList<ChannelInfo>();
         try {
-           for (ChannelInfo c : channels) {
-               Log.d(TAG, "delete:"+c.getId());
-               mContentResolver.delete(channelsUri, Channels._ID + "=?", new String[]{c.getId() + ""});
-       /*        ops.add(ContentProviderOperation.newDelete(
-                        TvContract.buildChannelUri(c.getId()))
-                        .build()
-                    );*/
+            for (int start = 0; start < channels.size(); start += DELETE_CHUNK_SIZE) {
+                int end = Math.min(start + DELETE_CHUNK_SIZE, channels.size());
+                StringBuilder selection = new StringBuilder(Channels._ID + " IN (");
+                String[] args = new String[end - start];
+                for (int i = start; i < end; i++) {
+                    selection.append(i == start ? "?" : ",?");
+                    args[i - start] = String.valueOf(channels.get(i).getId());
+                }
+                selection.append(")");
+                int count = mContentResolver.delete(channelsUri, selection.toString(), args);
+                deleteCount += count;
+                if (count == end - start) {
+                    deleted.addAll(channels.subList(start, end));
+                } else {
+                    Log.w(TAG, "deleteChannels: " + count + " of " + (end - start)
+                            + " channels deleted, renumbering skips them");
+                }
             }
-
-//            mContentResolver.applyBatch(TvContract.AUTHORITY, ops);
+            Log.d(TAG, "delete " + deleteCount + " of " + channels.size() + " channels");
         } catch (Exception e) {
             //TODO
+            Log.e(TAG, "deleteChannels Failed = " + e.getMessage());
+        }
+
+        if ((deleted.size() > 0) && updateChannelNumber) {
+            renumberAfterDelete(channelsUri, deleted);
         }
-   }
+        TvChannelRepository.notifyLocalChange(null);
+    }
+
+    private void renumberAfterDelete(Uri channelsUri, ArrayList<ChannelInfo> deleted) {
+        // sorted deleted numbers of each service type
+        HashMap<String, int[]> deletedNumbers = new HashMap<String, int[]>();
+        HashMap<String, ArrayList<Integer>> numbers = new HashMap<String, ArrayList<Integer>>();
+        for (ChannelInfo c : deleted) {
+            ArrayList<Integer> list = numbers.get(c.getServiceType());
+            if (list == null) {
+                list = new ArrayList<Integer>();
+                numbers.put(c.getServiceType(), list);
+            }
+            list.add(c.getNumber());
+        }
+        for (Map.Entry<String, ArrayList<Integer>> entry : numbers.entrySet()) {
+            int[] sorted = new int[entry.getValue().size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = entry.getValue().get(i);
+            }
+            Arrays.sort(sorted);
+            deletedNumbers.put(entry.getKey(), sorted);
+        }
+
+        String[] projection = {Channels._ID, Channels.COLUMN_DISPLAY_NUMBER, Channels.COLUMN_SERVICE_TYPE};
+        TvBatchApplier applier = new TvBatchApplier(mContentResolver, TvContract.AUTHORITY, null);
+        Cursor cursor = null;
+        try {
+            cursor = mContentResolver.query(channelsUri, projection, null, null, null);
+            while (cursor != null && cursor.moveToNext()) {
+                int[] sorted = deletedNumbers.get(cursor.getString(2));
+                if (sorted == null)
+                    continue;
+                int number = cursor.getInt(1);
+                // deleted channels numbered below this one
+                int below = Arrays.binarySearch(sorted, number);
+                below = (below < 0) ? -below - 1 : below;
+                while (below > 0 && sorted[below - 1] == number)
+                    below--;
+                if (below > 0) {
+                    if (DEBUG)
+                        Log.d(TAG, "deleteChannels: update channel: number=" + number + " -> " + (number - below));
+                    ContentValues updateValues = new ContentValues();
+                    updateValues.put(Channels.COLUMN_DISPLAY_NUMBER, number - below);
+                    applier.update(TvContract.buildChannelUri(cursor.getLong(0)), updateValues);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "renumberAfterDelete Failed = " + e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        applier.finish();
+    }
 
     public void deleteChannelsContinuous(ArrayList<ChannelInfo> channels, boolean updateChannelNumber) {
         int count = channels.size();
@@ -962,6 +1061,7 @@ public class TvDataBaseManager {
                 }
             }
         }
+        TvChannelRepository.notifyLocalChange(null);
     }
 
 
@@ -974,10 +1074,12 @@ public class TvDataBaseManager {
         Uri sourceUri = TvContract.buildChannelUri(sourceChannel.getId());
         updateValues.put(Channels.COLUMN_DISPLAY_NUMBER, targetChannel.getNumber());
         mContentResolver.update(sourceUri, updateValues, null, null);
+        TvChannelRepository.notifyLocalChange(sourceUri);
 
         Uri targetUri = TvContract.buildChannelUri(targetChannel.getId());
         updateValues.put(Channels.COLUMN_DISPLAY_NUMBER, sourceChannel.getNumber());
         mContentResolver.update(targetUri, updateValues, null, null);
+        TvChannelRepository.notifyLocalChange(targetUri);
     }
 
     public void moveChannel (ChannelInfo sourceChannel, ChannelInfo targetChannel) {
@@ -1023,6 +1125,8 @@ public class TvDataBaseManager {
                 cursor.close();
             }
         }
+        // renumbers a range of rows
+        TvChannelRepository.notifyLocalChange(null);
     }
 
     public void skipChannel (ChannelInfo channel) {
@@ -1085,6 +1189,8 @@ public class TvDataBaseManager {
                 cursor.close();
             }
         }
+        // renumbers every channel before it
+        TvChannelRepository.notifyLocalChange(null);
     }
 
     public void updateChannelInfo(ChannelInfo channel) {
@@ -1119,67 +1225,66 @@ public class TvDataBaseManager {
 
     public void updateOrinsertChannelInList(ArrayList<ChannelInfo> updatelist,
         ArrayList<ChannelInfo> insertlist, boolean isdtv, boolean manualscan) {
-        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+        updateOrinsertChannelInList(updatelist, insertlist, isdtv, manualscan, null);
+    }
+
+    /**
+     * Operations are sent in chunks sized by their estimated parcel size, a failed
+     * chunk is split and retried, so one bad channel does not fail the others.
+     * @param listener told after each chunk, may be null
+     * @return number of channels that could not be written
+     */
+    public int updateOrinsertChannelInList(ArrayList<ChannelInfo> updatelist,
+        ArrayList<ChannelInfo> insertlist, boolean isdtv, boolean manualscan,
+        TvBatchApplier.ProgressListener listener) {
+        TvBatchApplier applier = new TvBatchApplier(mContentResolver, TvContract.AUTHORITY, listener);
+        // a snapshot taken before the first chunk is applied, like the single batch before
+        ChannelIdentityIndex index = new ChannelIdentityIndex(mContentResolver);
         if (updatelist != null) {
             for (ChannelInfo one : updatelist) {
                 long id = one.getId();
                 if (id == -1 && manualscan) {
-                    id = queryChannelIdInDb(one);
+                    id = queryChannelIdInDb(one, index);
                     Log.d(TAG, "updateOrinsertChannelInList find id = " + id);
                 }
-                if (id < 0) {
-                    ops.add(creatOperation(isdtv, false, id, one));
-                } else {
-                    ops.add(creatOperation(isdtv, true, id, one));
-                }
+                addChannelOperation(applier, isdtv, id, one);
                 Log.d(TAG, "updateOrinsertChannelInList add update = " + one.getDisplayNumber());
             }
         }
         if (insertlist != null) {
             for (ChannelInfo one : insertlist) {
-                ops.add(creatOperation(isdtv, false, -1, one));
+                addChannelOperation(applier, isdtv, -1, one);
                 Log.d(TAG, "updateOrinsertChannelInList add insert = " + one.getDisplayNumber());
             }
         }
-        try {
-            mContentResolver.applyBatch(TvContract.AUTHORITY, ops);
-        } catch (RemoteException | OperationApplicationException e) {
-            Log.e(TAG, "updateOrinsertChannelInList Failed = " + e.getMessage());
+        int failed = applier.finish();
+        if (failed > 0) {
+            Log.e(TAG, "updateOrinsertChannelInList Failed = " + failed + " of " + (applier.getAppliedCount() + failed));
         }
-        ops.clear();
+        TvChannelRepository.notifyLocalChange(null);
         // notify livetv immediately after R.
         notifyChange();
+        return failed;
     }
 
-    private ContentProviderOperation creatOperation(boolean isdtv, boolean isupdate, long id, ChannelInfo ch) {
-        if (isdtv) {
-            if (isupdate) {
-                return ContentProviderOperation.newUpdate(
-                                    TvContract.buildChannelUri(id))
-                                    .withValues(buildDtvChannelData(ch))
-                                    .build();
-            } else {
-                return ContentProviderOperation.newInsert(
-                                    TvContract.Channels.CONTENT_URI)
-                                    .withValues(buildDtvChannelData(ch))
-                                    .build();
-            }
+    private void addChannelOperation(TvBatchApplier applier, boolean isdtv, long id, ChannelInfo ch) {
+        ContentValues values = isdtv ? buildDtvChannelData(ch) : buildAtvChannelData(ch);
+        if (id < 0) {
+            applier.insert(TvContract.Channels.CONTENT_URI, values);
         } else {
-            if (isupdate) {
-                return ContentProviderOperation.newUpdate(
-                                    TvContract.buildChannelUri(id))
-                                    .withValues(buildAtvChannelData(ch))
-                                    .build();
-            } else {
-                return ContentProviderOperation.newInsert(
-                                    TvContract.Channels.CONTENT_URI)
-                                    .withValues(buildAtvChannelData(ch))
-                                    .build();
-            }
+            applier.update(TvContract.buildChannelUri(id), values);
         }
     }
 
     public long queryChannelIdInDb(ChannelInfo channel) {
+        return queryChannelIdInDb(channel, new ChannelIdentityIndex(mContentResolver));
+    }
+
+    /**
+     * @param index identity index shared by the lookups of one operation,
+     *        must not outlive writes to the channels it covers
+     */
+    private long queryChannelIdInDb(ChannelInfo channel, ChannelIdentityIndex index) {
         long id = -1;//-1 means not init; -2 means not exist
         if (channel != null) {
              id = channel.getId();
@@ -1189,73 +1294,103 @@ public class TvDataBaseManager {
         } else {
             return id;
         }
-        Uri channelsUri = TvContract.buildChannelsUriForInput(channel.getInputId());
-        String[] projection = {Channels._ID,
-            Channels.COLUMN_SERVICE_ID,
-            Channels.COLUMN_ORIGINAL_NETWORK_ID,
-            Channels.COLUMN_TRANSPORT_STREAM_ID,
-            Channels.COLUMN_DISPLAY_NUMBER,
-            Channels.COLUMN_DISPLAY_NAME,
-            Channels.COLUMN_INTERNAL_PROVIDER_DATA};
+        HashMap<String, Long> ids = index.get(channel.getInputId(), channel.getServiceType());
+        if (ids == null) {
+            return -1;
+        }
+        Long rowId = ids.get(ChannelIdentityIndex.dtvKey(channel.getSignalType(), channel.getOriginalNetworkId(),
+                channel.getTransportStreamId(), channel.getServiceId(), channel.getFrequency()));
+        if (rowId == null && channel.isAnalogChannel()) {
+            rowId = ids.get(ChannelIdentityIndex.atvKey(channel.getSignalType(), channel.getFrequency(),
+                    channel.getVideoStd(), channel.getAudioStd(), channel.getVfmt()));
+        }
+        return (rowId == null) ? -2 : rowId;
+    }
 
-        Cursor cursor = null;
-        try {
-            boolean found = false;
-            cursor = mContentResolver.query(channelsUri, projection, Channels.COLUMN_SERVICE_TYPE + "=?", new String[]{channel.getServiceType()}, null);
-            while (cursor != null && cursor.moveToNext()) {
-                long rowId = cursor.getLong(findPosition(projection, Channels._ID));
+    /**
+     * Identity keys of the channels of an input and service type, each row
+     * read and parsed once. DTV rows are keyed by signal type, (onid, tsid, sid)
+     * and frequency, ATV rows also by frequency, video std, audio std and vfmt.
+     * The first row of a key wins, as the former sequential scan did.
+     */
+    private static class ChannelIdentityIndex {
+        private final ContentResolver mContentResolver;
+        private final HashMap<String, HashMap<String, Long>> mIndexes = new HashMap<String, HashMap<String, Long>>();
 
-                if (channel.getId() == -1) {
-                    int serviceId = cursor.getInt(findPosition(projection, Channels.COLUMN_SERVICE_ID));
-                    int originalNetworkId = cursor.getInt(findPosition(projection, Channels.COLUMN_ORIGINAL_NETWORK_ID));
-                    int transportStreamId = cursor.getInt(findPosition(projection, Channels.COLUMN_TRANSPORT_STREAM_ID));
-                    int frequency = 0;
-                    int videostd = 0;
-                    int audiostd = 0;
-                    int vfmt = 0;
-                    String signalType = "";
-                    int index = cursor.getColumnIndex(Channels.COLUMN_INTERNAL_PROVIDER_DATA);
-                    if (index >= 0) {
-                        Map<String, String> parsedMap = DroidLogicTvUtils.jsonToMap(cursor.getString(index));
-                        frequency = Integer.parseInt(parsedMap.get(ChannelInfo.KEY_FREQUENCY));
-                        if (channel.isAnalogChannel()) {
-                            videostd = Integer.parseInt(parsedMap.get(ChannelInfo.KEY_VIDEO_STD));
-                            audiostd = Integer.parseInt(parsedMap.get(ChannelInfo.KEY_AUDIO_STD));
-                            vfmt = Integer.parseInt(parsedMap.get(ChannelInfo.KEY_VFMT));
+        ChannelIdentityIndex(ContentResolver resolver) {
+            mContentResolver = resolver;
+        }
+
+        static String dtvKey(String signalType, int originalNetworkId, int transportStreamId, int serviceId, int frequency) {
+            return "D:" + signalType + ":" + originalNetworkId + ":" + transportStreamId + ":" + serviceId + ":" + frequency;
+        }
+
+        static String atvKey(String signalType, int frequency, int videoStd, int audioStd, int vfmt) {
+            return "A:" + signalType + ":" + frequency + ":" + videoStd + ":" + audioStd + ":" + vfmt;
+        }
+
+        /**
+         * @return key to row id, null if the channels can not be read
+         */
+        HashMap<String, Long> get(String inputId, String serviceType) {
+            String name = inputId + "/" + serviceType;
+            HashMap<String, Long> ids = mIndexes.get(name);
+            if (ids == null) {
+                ids = load(inputId, serviceType);
+                if (ids != null) {
+                    mIndexes.put(name, ids);
+                }
+            }
+            return ids;
+        }
+
+        private HashMap<String, Long> load(String inputId, String serviceType) {
+            Uri channelsUri = TvContract.buildChannelsUriForInput(inputId);
+            String[] projection = {Channels._ID,
+                Channels.COLUMN_SERVICE_ID,
+                Channels.COLUMN_ORIGINAL_NETWORK_ID,
+                Channels.COLUMN_TRANSPORT_STREAM_ID,
+                Channels.COLUMN_INTERNAL_PROVIDER_DATA};
+            HashMap<String, Long> ids = new HashMap<String, Long>();
+
+            Cursor cursor = null;
+            try {
+                cursor = mContentResolver.query(channelsUri, projection, Channels.COLUMN_SERVICE_TYPE + "=?", new String[]{serviceType}, null);
+                while (cursor != null && cursor.moveToNext()) {
+                    long rowId = cursor.getLong(0);
+                    Map<String, String> parsedMap = DroidLogicTvUtils.jsonToMap(cursor.getString(4));
+                    if (parsedMap == null || parsedMap.get(ChannelInfo.KEY_FREQUENCY) == null) {
+                        continue;
+                    }
+                    int frequency = Integer.parseInt(parsedMap.get(ChannelInfo.KEY_FREQUENCY));
+                    String signalType = parsedMap.get(ChannelInfo.KEY_SIGNAL_TYPE);
+                    String key = dtvKey(signalType, cursor.getInt(2), cursor.getInt(3), cursor.getInt(1), frequency);
+                    if (!ids.containsKey(key)) {
+                        ids.put(key, rowId);
+                    }
+                    String videoStd = parsedMap.get(ChannelInfo.KEY_VIDEO_STD);
+                    String audioStd = parsedMap.get(ChannelInfo.KEY_AUDIO_STD);
+                    String vfmt = parsedMap.get(ChannelInfo.KEY_VFMT);
+                    if (videoStd != null && audioStd != null && vfmt != null) {
+                        key = atvKey(signalType, frequency, Integer.parseInt(videoStd),
+                                Integer.parseInt(audioStd), Integer.parseInt(vfmt));
+                        if (!ids.containsKey(key)) {
+                            ids.put(key, rowId);
                         }
-                        signalType = parsedMap.get(ChannelInfo.KEY_SIGNAL_TYPE);
                     }
-                    if (TextUtils.equals(signalType, channel.getSignalType())
-                        && (serviceId == channel.getServiceId()
-                        && originalNetworkId == channel.getOriginalNetworkId()
-                        && transportStreamId == channel.getTransportStreamId()
-                        && frequency == channel.getFrequency())
-                            || (channel.isAnalogChannel()
-                                && TextUtils.equals(signalType, channel.getSignalType())
-                                && frequency == channel.getFrequency()
-                                && videostd == channel.getVideoStd()
-                                && audiostd == channel.getAudioStd()
-                                && vfmt == channel.getVfmt()))
-                        found = true;
                 }
-
-                if (found) {
-                    id = rowId;
-                    return id;
+            } catch (Exception e) {
+                //TODO
+                Log.e(TAG, "queryChannelIdInDb Failed = " + e.getMessage());
+                e.printStackTrace();
+                return null;
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
                 }
             }
-            if (id == -1)
-                return -2;
-        } catch (Exception e) {
-            //TODO
-            Log.e(TAG, "queryChannelIdInDb Failed = " + e.getMessage());
-            e.printStackTrace();
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
+            return ids;
         }
-        return -1;
     }
 
     // If a channel exists, update it. If not, insert a new one.
@@ -1315,89 +1450,67 @@ public class TvDataBaseManager {
     }
 
     public ArrayList<ChannelInfo> getChannelList(String curInputId, String srvType, boolean need_browserable) {
-        ArrayList<ChannelInfo> channelList = new ArrayList<ChannelInfo>();
-        Uri channelsUri = TvContract.buildChannelsUriForInput(curInputId);
-
-        Cursor cursor = null;
-        try {
-            cursor = mContentResolver.query(channelsUri, ChannelInfo.COMMON_PROJECTION, null, null, null);
-            ChannelInfo channelInfo = null;
-            while (cursor != null && cursor.moveToNext()) {
-                int index = cursor.getColumnIndex(Channels.COLUMN_SERVICE_TYPE);
-                Log.d(TAG,"index:"+index+","+ cursor.getString(index)+",srvType:"+srvType);
-                if (srvType.equals(cursor.getString(index))) {
-                    channelInfo = ChannelInfo.fromCommonCursor(cursor);
-                    if (channelInfo == null )
-                        continue;
-                    if (!need_browserable) {
-                        channelList.add(channelInfo);
-                    } else {
-                        boolean browserable = cursor.getInt(cursor.getColumnIndex(Channels.COLUMN_BROWSABLE)) == 1 ? true : false;
-                        if (browserable) {
-                            channelList.add(channelInfo);
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Log.d(TAG,"getChannelList Exception");
-            // TODO: handle exception
-            e.printStackTrace();
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
+        return getChannelList(curInputId, srvType, need_browserable, true);
+    }
 
-        if (channelList.size() > 0 && channelList.get(0).getType().contains("DTMB"))
-            Collections.sort(channelList, new SortNumberComparator());
-        else if (channelList.size() > 0 && channelList.get(0).isAnalogChannel()) {
-            if (channelList.get(0).getSignalType().equals(TvContract.Channels.TYPE_ATSC_C) ||
-                channelList.get(0).getSignalType().equals(TvContract.Channels.TYPE_ATSC_T)) {
-                /* For ATSC analog search, sort by channel number */
-                Collections.sort(channelList, new SortNumberComparator());
-            } else {
-                /* For other analog search, sort by freq */
-                Collections.sort(channelList, new SortFreqComparator());
-            }
-        } else
-            Collections.sort(channelList, new SortComparator());
+    public ArrayList<ChannelInfo> getChannelList(String curInputId, String srvType, boolean need_browserable, boolean needHiddenChannel) {
+        ArrayList<ChannelInfo> channelList = queryChannelList(curInputId, ChannelInfo.COMMON_PROJECTION,
+                srvType, need_browserable, needHiddenChannel);
+        sortChannelList(channelList);
         if (DEBUG)
             printList(channelList);
         return channelList;
     }
 
-    public ArrayList<ChannelInfo> getChannelList(String curInputId, String srvType, boolean need_browserable, boolean needHiddenChannel) {
+    /**
+     * Same filtering as getChannelList, but only reads ChannelInfo.LIST_PROJECTION,
+     * so internal provider data is neither read nor parsed. Channels carry no
+     * tuning or audio/subtitle info. Analog channels have no signal type or
+     * frequency then, they are all sorted with SortNumberComparator as ATSC
+     * analog lists are in getChannelList.
+     */
+    public ArrayList<ChannelInfo> getChannelListForView(String curInputId, String srvType, boolean need_browserable, boolean needHiddenChannel) {
+        ArrayList<ChannelInfo> channelList = queryChannelList(curInputId, ChannelInfo.LIST_PROJECTION,
+                srvType, need_browserable, needHiddenChannel);
+        if (channelList.size() > 0 && channelList.get(0).isAnalogChannel())
+            Collections.sort(channelList, new SortNumberComparator());
+        else
+            sortChannelList(channelList);
+        return channelList;
+    }
+
+    // mapToJson writes the flag without spaces, rows of other writers are checked again after parsing
+    private static final String HIDDEN_CHANNEL_PATTERN = "%\"" + ChannelInfo.KEY_HIDDEN + "\":true%";
+
+    private ArrayList<ChannelInfo> queryChannelList(String curInputId, String[] projection, String srvType,
+            boolean need_browserable, boolean needHiddenChannel) {
         ArrayList<ChannelInfo> channelList = new ArrayList<ChannelInfo>();
         Uri channelsUri = TvContract.buildChannelsUriForInput(curInputId);
 
+        StringBuilder selection = new StringBuilder(Channels.COLUMN_SERVICE_TYPE + "=?");
+        ArrayList<String> args = new ArrayList<String>();
+        args.add(srvType);
+        if (need_browserable) {
+            selection.append(" AND " + Channels.COLUMN_BROWSABLE + "=1");
+        }
+        if (!needHiddenChannel) {
+            selection.append(" AND (" + Channels.COLUMN_INTERNAL_PROVIDER_DATA + " IS NULL OR "
+                    + Channels.COLUMN_INTERNAL_PROVIDER_DATA + " NOT LIKE ?)");
+            args.add(HIDDEN_CHANNEL_PATTERN);
+        }
+
         Cursor cursor = null;
         try {
-            cursor = mContentResolver.query(channelsUri, ChannelInfo.COMMON_PROJECTION, null, null, null);
+            cursor = mContentResolver.query(channelsUri, projection, selection.toString(),
+                    args.toArray(new String[args.size()]), null);
             ChannelInfo channelInfo = null;
             while (cursor != null && cursor.moveToNext()) {
-                int index = cursor.getColumnIndex(Channels.COLUMN_SERVICE_TYPE);
-                Log.d(TAG,"add hide index:"+index+","+ cursor.getString(index)+",srvType:"+srvType);
-                if (srvType.equals(cursor.getString(index))) {
-                    channelInfo = ChannelInfo.fromCommonCursor(cursor);
-                    if (channelInfo == null )
-                        continue;
-                    boolean hidden = channelInfo.getHidden() > 0 ? true : false;
-                    boolean browserable = channelInfo.isBrowsable();
-                    if (!need_browserable) {
-                        if (!needHiddenChannel && hidden) {
-                            continue;
-                        }
-                        channelList.add(channelInfo);
-                    } else {
-                        if (browserable) {
-                            if (!needHiddenChannel && hidden) {
-                                continue;
-                            }
-                            channelList.add(channelInfo);
-                        }
-                    }
-                }
+                channelInfo = ChannelInfo.fromCommonCursor(cursor);
+                if (channelInfo == null)
+                    continue;
+                if (!needHiddenChannel && channelInfo.getHidden() > 0)
+                    continue;
+                channelList.add(channelInfo);
             }
         } catch (Exception e) {
             Log.d(TAG,"getChannelList Exception");
@@ -1408,7 +1521,10 @@ public class TvDataBaseManager {
                 cursor.close();
             }
         }
+        return channelList;
+    }
 
+    private void sortChannelList(ArrayList<ChannelInfo> channelList) {
         if (channelList.size() > 0 && channelList.get(0).getType().contains("DTMB"))
             Collections.sort(channelList, new SortNumberComparator());
         else if (channelList.size() > 0 && channelList.get(0).isAnalogChannel()) {
@@ -1422,9 +1538,6 @@ public class TvDataBaseManager {
             }
         } else
             Collections.sort(channelList, new SortComparator());
-        if (DEBUG)
-            printList(channelList);
-        return channelList;
     }
 
     public ChannelInfo getChannelInfo(Uri channelUri) {
@@ -1603,6 +1716,7 @@ public class TvDataBaseManager {
                 if (frequency == channel.getFrequency()) {
                     channelUri = TvContract.buildChannelUri(rowId);
                     mContentResolver.update(channelUri, buildAtvChannelData(channel), null, null);
+                    TvChannelRepository.notifyLocalChange(channelUri);
                     insertLogo(channel.getLogoUrl(), channelUri);
                     ret = UPDATE_SUCCESS;
                 } else {
@@ -1636,6 +1750,7 @@ public class TvDataBaseManager {
         Uri channelsUri = TvContract.buildChannelsUriForInput(channel.getInputId());
         channel.setDisplayNumber(Integer.toString(channelNumber));
         Uri uri = mContentResolver.insert(TvContract.Channels.CONTENT_URI, buildAtvChannelData(channel));
+        TvChannelRepository.notifyLocalChange(uri);
 
         insertLogo(channel.getLogoUrl(), uri);
 
@@ -1672,6 +1787,7 @@ public class TvDataBaseManager {
                     channelUri = TvContract.buildChannelUri(rowId);
                     channel.setDisplayNumber(cursor.getString(findPosition(projection,Channels.COLUMN_DISPLAY_NUMBER)));
                     mContentResolver.update(channelUri, buildDtvChannelData(channel), null, null);
+                    TvChannelRepository.notifyLocalChange(channelUri);
                     insertLogo(channel.getLogoUrl(), channelUri);
                     ret = UPDATE_SUCCESS;
                     break;
@@ -1707,6 +1823,7 @@ public class TvDataBaseManager {
         Uri channelsUri = TvContract.buildChannelsUriForInput(channel.getInputId());
         channel.setDisplayNumber(Integer.toString(channelNumber));
         Uri uri = mContentResolver.insert(TvContract.Channels.CONTENT_URI, buildDtvChannelData(channel));
+        TvChannelRepository.notifyLocalChange(uri);
         insertLogo(channel.getLogoUrl(), uri);
 
         if (DEBUG)
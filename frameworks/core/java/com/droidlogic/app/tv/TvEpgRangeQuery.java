@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.media.tv.TvContract;
+import android.util.Log;
+
+/**
+ * Range query of the EPG stored in the TvProvider Programs table. The events of
+ * a channel overlapping [startTime, endTime) are read with one cursor and
+ * decoded page by page into a fixed set of pooled EpgInfoEvent objects owned
+ * by this instance, so walking a long window, e.g. a 7 day guide, holds one
+ * page of events plus the cursor window, however long the guide is.
+ * Channels are TvProvider channel ids, times are UTC seconds as in
+ * EpgInfoEvent; evtId carries the Programs row id and subFlag is 0.
+ * Queries on one instance are serialized; use an instance per thread to run
+ * them in parallel.
+ */
+public class TvEpgRangeQuery {
+    private static final String TAG = "TvEpgRangeQuery";
+
+    public static final int DEFAULT_PAGE_SIZE = 64;
+
+    private static final String[] PROJECTION = {
+        TvContract.Programs._ID,
+        TvContract.Programs.COLUMN_TITLE,
+        TvContract.Programs.COLUMN_SHORT_DESCRIPTION,
+        TvContract.Programs.COLUMN_LONG_DESCRIPTION,
+        TvContract.Programs.COLUMN_START_TIME_UTC_MILLIS,
+        TvContract.Programs.COLUMN_END_TIME_UTC_MILLIS,
+    };
+    private static final String SELECTION = TvContract.Programs.COLUMN_START_TIME_UTC_MILLIS + "<? AND "
+            + TvContract.Programs.COLUMN_END_TIME_UTC_MILLIS + ">?";
+    private static final String SORT_ORDER = TvContract.Programs.COLUMN_START_TIME_UTC_MILLIS + " ASC, "
+            + TvContract.Programs._ID + " ASC";
+
+    public interface PageCallback {
+        /**
+         * Called on the querying thread for every page. The events are reused
+         * for the next page, copy the ones that must be kept.
+         * @param events pooled events, only the first count are valid
+         * @return false to stop the query
+         */
+        boolean onPage(TvControlManager.EpgInfoEvent[] events, int count);
+    }
+
+    private final ContentResolver mContentResolver;
+    private final TvControlManager.EpgInfoEvent[] mPool;
+
+    public TvEpgRangeQuery(Context context, TvControlManager manager) {
+        this(context, manager, DEFAULT_PAGE_SIZE);
+    }
+
+    public TvEpgRangeQuery(Context context, TvControlManager manager, int pageSize) {
+        mContentResolver = context.getApplicationContext().getContentResolver();
+        mPool = new TvControlManager.EpgInfoEvent[Math.max(pageSize, 1)];
+        for (int i = 0; i < mPool.length; i++) {
+            mPool[i] = manager.new EpgInfoEvent();
+        }
+    }
+
+    public int getPageSize() {
+        return mPool.length;
+    }
+
+    /**
+     * Stream the events of channelId overlapping [startTime, endTime), ordered by start time.
+     * @return number of events delivered, -1 if the Programs table could not be read
+     */
+    public synchronized int query(long channelId, long startTime, long endTime, PageCallback callback) {
+        String[] selectionArgs = {String.valueOf(endTime * 1000), String.valueOf(startTime * 1000)};
+        Cursor cursor = null;
+        try {
+            cursor = mContentResolver.query(TvContract.buildProgramsUriForChannel(channelId),
+                    PROJECTION, SELECTION, selectionArgs, SORT_ORDER);
+            if (cursor == null) {
+                return -1;
+            }
+            int delivered = 0;
+            int count = 0;
+            while (cursor.moveToNext()) {
+                TvControlManager.EpgInfoEvent event = mPool[count++];
+                event.evtId = (int) cursor.getLong(0);
+                event.programName = cursor.getString(1);
+                event.programDescription = cursor.getString(2);
+                event.programExtDescription = cursor.getString(3);
+                event.startTime = cursor.getLong(4) / 1000;
+                event.endTime = cursor.getLong(5) / 1000;
+                event.subFlag = 0;
+                if (count == mPool.length) {
+                    delivered += count;
+                    count = 0;
+                    if (!callback.onPage(mPool, mPool.length)) {
+                        return delivered;
+                    }
+                }
+            }
+            if (count > 0) {
+                delivered += count;
+                callback.onPage(mPool, count);
+            }
+            return delivered;
+        } catch (Exception e) {
+            Log.e(TAG, "query:" + e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import static com.droidlogic.app.tv.TvControlCommand.*;
+import vendor.amlogic.hardware.tvserver.V1_0.TvHidlParcel;
+
+/**
+ * Moves tvserver callbacks off the binder threads onto a dispatch looper,
+ * an own thread unless the client asked for its own looper. Binder threads only append to lock-free queues; the looper
+ * drains them in batches, always taking the urgent lane first so alarm and
+ * signal events never wait behind a burst of caption or scan data.
+ */
+class TvEventDispatcher {
+    private static final String TAG = "TvEventDispatcher";
+
+    public static final int LANE_URGENT = 0;
+    public static final int LANE_NORMAL = 1;
+    public static final int LANE_BULK   = 2;
+    private static final int LANE_COUNT = 3;
+
+    // events handled per looper turn before yielding
+    private static final int DRAIN_BATCH_SIZE = 32;
+
+    public interface EventSink {
+        void onEvent(TvHidlParcel parcel);
+    }
+
+    private static final class PendingEvent {
+        final TvHidlParcel parcel;
+        final long enqueueTime;
+
+        PendingEvent(TvHidlParcel parcel, long enqueueTime) {
+            this.parcel = parcel;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<PendingEvent>[] mLanes;
+    private final AtomicInteger mQueueDepth = new AtomicInteger(0);
+    private final AtomicInteger mPeakQueueDepth = new AtomicInteger(0);
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean(false);
+    private final AtomicLong mDispatchedCount = new AtomicLong(0);
+    private final AtomicLong mTotalLatencyNanos = new AtomicLong(0);
+    private final AtomicLong mMaxLatencyNanos = new AtomicLong(0);
+
+    // signal/connect events of one source within this window collapse to the latest, 0 disables
+    private volatile int mCoalesceWindowMs = 0;
+    private final SparseArray<CoalescedEvent> mCoalesced = new SparseArray<CoalescedEvent>();
+    private final AtomicLong mSuppressedCount = new AtomicLong(0);
+
+    private final class CoalescedEvent implements Runnable {
+        final int key;
+        TvHidlParcel parcel;
+        long enqueueTime;
+
+        CoalescedEvent(int key, TvHidlParcel parcel, long enqueueTime) {
+            this.key = key;
+            this.parcel = parcel;
+            this.enqueueTime = enqueueTime;
+        }
+
+        @Override
+        public void run() {
+            TvHidlParcel latest;
+            long time;
+            synchronized (mCoalesced) {
+                mCoalesced.remove(key);
+                latest = parcel;
+                time = enqueueTime;
+            }
+            dispatch(latest, time);
+        }
+    }
+
+    // null when dispatching on a looper given by the caller
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private EventSink mSink;
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param looper looper to dispatch on, null to start a dedicated thread
+     */
+    @SuppressWarnings("unchecked")
+    public TvEventDispatcher(Looper looper) {
+        mLanes = new ConcurrentLinkedQueue[LANE_COUNT];
+        for (int i = 0; i < LANE_COUNT; i++) {
+            mLanes[i] = new ConcurrentLinkedQueue<PendingEvent>();
+        }
+        if (looper == null) {
+            mThread = new HandlerThread(TAG);
+            mThread.start();
+            looper = mThread.getLooper();
+        } else {
+            mThread = null;
+        }
+        mHandler = new Handler(looper);
+    }
+
+    public Looper getLooper() {
+        return mHandler.getLooper();
+    }
+
+    /**
+     * Stop the own dispatch thread after the pending events, a looper given by the caller is left alone.
+     */
+    public void quit() {
+        if (mThread != null) {
+            mThread.quitSafely();
+        }
+    }
+
+    public void setEventSink(EventSink sink) {
+        mSink = sink;
+    }
+
+    public static int laneOf(int msgType) {
+        switch (msgType) {
+            case EAS_EVENT_CALLBACK:
+            case SIGNAL_DETECT_CALLBACK:
+            case SOURCE_CONNECT_CALLBACK:
+            case SOURCE_SWITCH_CALLBACK:
+                return LANE_URGENT;
+            case CLOSE_CAPTION_CALLBACK:
+            case SCAN_EVENT_CALLBACK:
+            case EPG_EVENT_CALLBACK:
+                return LANE_BULK;
+            default:
+                return LANE_NORMAL;
+        }
+    }
+
+    public void setCoalesceWindow(int windowMs) {
+        mCoalesceWindowMs = Math.max(windowMs, 0);
+    }
+
+    public int getCoalesceWindow() {
+        return mCoalesceWindowMs;
+    }
+
+    /**
+     * Events that describe the latest state of one source and may be collapsed,
+     * keyed by type and source (or main/PiP window for signal info).
+     * @return coalesce key, or -1 if the event must be delivered as is
+     */
+    private static int coalesceKeyOf(TvHidlParcel parcel) {
+        switch (parcel.msgType) {
+            case SIGNAL_DETECT_CALLBACK:
+                return (parcel.msgType << 16) | (parcel.bodyInt.get(4) & 0xffff);
+            case SOURCE_CONNECT_CALLBACK:
+                return (parcel.msgType << 16) | (parcel.bodyInt.get(0) & 0xffff);
+            default:
+                return -1;
+        }
+    }
+
+    private boolean coalesce(TvHidlParcel parcel, long now) {
+        int window = mCoalesceWindowMs;
+        if (window <= 0) {
+            return false;
+        }
+        int key;
+        try {
+            key = coalesceKeyOf(parcel);
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        }
+        if (key < 0) {
+            return false;
+        }
+        synchronized (mCoalesced) {
+            CoalescedEvent pending = mCoalesced.get(key);
+            if (pending != null) {
+                pending.parcel = parcel;
+                pending.enqueueTime = now;
+                mSuppressedCount.incrementAndGet();
+                return true;
+            }
+            pending = new CoalescedEvent(key, parcel, now);
+            mCoalesced.put(key, pending);
+            mHandler.postDelayed(pending, window);
+        }
+        return true;
+    }
+
+    /**
+     * Called from binder threads, never blocks.
+     */
+    public void enqueue(TvHidlParcel parcel) {
+        if (coalesce(parcel, SystemClock.elapsedRealtimeNanos())) {
+            return;
+        }
+        mLanes[laneOf(parcel.msgType)].offer(new PendingEvent(parcel, SystemClock.elapsedRealtimeNanos()));
+        int depth = mQueueDepth.incrementAndGet();
+        int peak = mPeakQueueDepth.get();
+        while (depth > peak && !mPeakQueueDepth.compareAndSet(peak, depth)) {
+            peak = mPeakQueueDepth.get();
+        }
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mHandler.post(mDrainRunnable);
+        }
+    }
+
+    private PendingEvent poll() {
+        for (int i = 0; i < LANE_COUNT; i++) {
+            PendingEvent ev = mLanes[i].poll();
+            if (ev != null) {
+                return ev;
+            }
+        }
+        return null;
+    }
+
+    private void drain() {
+        for (int i = 0; i < DRAIN_BATCH_SIZE; i++) {
+            PendingEvent ev = poll();
+            if (ev == null) {
+                break;
+            }
+            mQueueDepth.decrementAndGet();
+            dispatch(ev.parcel, ev.enqueueTime);
+        }
+
+        if (mQueueDepth.get() > 0) {
+            // more left, yield to the looper and continue next turn
+            mHandler.post(mDrainRunnable);
+            return;
+        }
+        mDrainScheduled.set(false);
+        // an event may have been queued between the empty check and clearing the flag
+        if (mQueueDepth.get() > 0) {
+            scheduleDrain();
+        }
+    }
+
+    private void dispatch(TvHidlParcel parcel, long enqueueTime) {
+        recordLatency(SystemClock.elapsedRealtimeNanos() - enqueueTime);
+        EventSink sink = mSink;
+        if (sink != null) {
+            try {
+                sink.onEvent(parcel);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "dispatch msg type " + parcel.msgType + " failed", e);
+            }
+        }
+    }
+
+    private void recordLatency(long latency) {
+        mDispatchedCount.incrementAndGet();
+        mTotalLatencyNanos.addAndGet(latency);
+        long max = mMaxLatencyNanos.get();
+        while (latency > max && !mMaxLatencyNanos.compareAndSet(max, latency)) {
+            max = mMaxLatencyNanos.get();
+        }
+    }
+
+    public int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    public int getPeakQueueDepth() {
+        return mPeakQueueDepth.get();
+    }
+
+    public long getDispatchedCount() {
+        return mDispatchedCount.get();
+    }
+
+    public long getAverageLatencyMicros() {
+        long count = mDispatchedCount.get();
+        return (count == 0) ? 0 : mTotalLatencyNanos.get() / count / 1000;
+    }
+
+    public long getMaxLatencyMicros() {
+        return mMaxLatencyNanos.get() / 1000;
+    }
+
+    public long getSuppressedCount() {
+        return mSuppressedCount.get();
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import vendor.amlogic.hardware.tvserver.V1_0.TvHidlParcel;
+
+/**
+ * Records the raw tvserver callback stream to a file and plays it back.
+ * Binder threads only queue the parcel with its arrival time; a writer
+ * thread encodes and writes it, so a slow disk never holds up a callback.
+ * When the writer falls MAX_QUEUED parcels behind, new ones are dropped and
+ * counted.
+ *
+ * File layout: magic, version, then one record per parcel:
+ * varint time delta in us, varint msgType, varint int count, zigzag varint
+ * per int, varint string count, varint UTF-8 byte length and the bytes per
+ * string. Version 1 files, with modified UTF-8 strings, can still be replayed.
+ */
+class TvEventRecorder {
+    private static final String TAG = "TvEventRecorder";
+    private static final int MAGIC = 0x54564556;   // "TVEV"
+    private static final int VERSION = 2;
+    private static final int VERSION_WRITE_UTF = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_QUEUED = 4096;
+
+    public interface ParcelSink {
+        void onParcel(TvHidlParcel parcel);
+    }
+
+    private static final class Record {
+        final TvHidlParcel parcel;
+        final long time;
+
+        Record(TvHidlParcel parcel, long time) {
+            this.parcel = parcel;
+            this.time = time;
+        }
+    }
+
+    // queued by close() after the last record
+    private static final Record END = new Record(null, 0);
+
+    private final DataOutputStream mOut;
+    private final LinkedBlockingQueue<Record> mQueue = new LinkedBlockingQueue<Record>(MAX_QUEUED + 1);
+    private final Thread mWriter;
+    private volatile boolean mClosed = false;
+    private volatile int mCount = 0;
+    private final AtomicInteger mDropped = new AtomicInteger(0);
+
+    public TvEventRecorder(File file) throws IOException {
+        mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        mOut.writeInt(MAGIC);
+        mOut.writeInt(VERSION);
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop(startTime);
+            }
+        }, TAG);
+        mWriter.start();
+    }
+
+    /**
+     * Called from binder threads, only queues the parcel for the writer thread.
+     */
+    public void record(TvHidlParcel parcel) {
+        if (mClosed) {
+            return;
+        }
+        if (mQueue.size() >= MAX_QUEUED
+                || !mQueue.offer(new Record(parcel, SystemClock.elapsedRealtimeNanos()))) {
+            mDropped.incrementAndGet();
+        }
+    }
+
+    private void writeLoop(long lastTime) {
+        boolean failed = false;
+        while (true) {
+            Record record;
+            try {
+                record = mQueue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (record == END) {
+                break;
+            }
+            if (failed) {
+                continue;
+            }
+            try {
+                writeRecord(record, lastTime);
+                lastTime = record.time;
+                mCount++;
+            } catch (IOException e) {
+                Log.e(TAG, "record:" + e);
+                failed = true;
+            }
+        }
+        try {
+            mOut.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close:" + e);
+        }
+    }
+
+    private void writeRecord(Record record, long lastTime) throws IOException {
+        TvHidlParcel parcel = record.parcel;
+        writeVarLong(mOut, (record.time - lastTime) / 1000);
+        writeVarLong(mOut, parcel.msgType & 0xffffffffL);
+        int size = parcel.bodyInt.size();
+        writeVarLong(mOut, size);
+        for (int i = 0; i < size; i++) {
+            int v = parcel.bodyInt.get(i);
+            writeVarLong(mOut, ((v << 1) ^ (v >> 31)) & 0xffffffffL);
+        }
+        size = parcel.bodyString.size();
+        writeVarLong(mOut, size);
+        for (int i = 0; i < size; i++) {
+            String s = parcel.bodyString.get(i);
+            byte[] bytes = (s != null) ? s.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            writeVarLong(mOut, bytes.length);
+            mOut.write(bytes);
+        }
+    }
+
+    /**
+     * @return number of parcels written so far
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * Write what is queued, close the file and stop the writer thread.
+     */
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mQueue.put(END);
+                mWriter.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (mDropped.get() > 0) {
+            Log.w(TAG, "dropped " + mDropped.get() + " parcels, writer too slow");
+        }
+    }
+
+    /**
+     * Feed a recording to the sink on the calling thread.
+     * @param speed playback speed factor, 1 keeps the recorded timing, 0 or less plays without delay
+     * @return number of parcels replayed
+     */
+    public static int replay(File file, float speed, ParcelSink sink) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        int count = 0;
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not an event recording: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION && version != VERSION_WRITE_UTF) {
+                throw new IOException("unsupported recording version " + version);
+            }
+            long start = SystemClock.elapsedRealtimeNanos();
+            long offsetUs = 0;
+            while (true) {
+                long delta;
+                try {
+                    delta = readVarLong(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                TvHidlParcel parcel = new TvHidlParcel();
+                parcel.msgType = (int) readVarLong(in);
+                int size = (int) readVarLong(in);
+                for (int i = 0; i < size; i++) {
+                    int v = (int) readVarLong(in);
+                    parcel.bodyInt.add((v >>> 1) ^ -(v & 1));
+                }
+                size = (int) readVarLong(in);
+                for (int i = 0; i < size; i++) {
+                    parcel.bodyString.add((version == VERSION_WRITE_UTF) ? in.readUTF() : readString(in));
+                }
+
+                offsetUs += delta;
+                if (speed > 0) {
+                    long due = start + (long) (offsetUs * 1000 / speed);
+                    long waitMs = (due - SystemClock.elapsedRealtimeNanos()) / 1000000;
+                    if (waitMs > 0) {
+                        SystemClock.sleep(waitMs);
+                    }
+                }
+                sink.onParcel(parcel);
+                count++;
+            }
+        } finally {
+            in.close();
+        }
+        return count;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7fL) != 0) {
+            out.writeByte((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("malformed string length " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
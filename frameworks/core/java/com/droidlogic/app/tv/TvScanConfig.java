@@ -10,6 +10,7 @@
 package com.droidlogic.app.tv;
 
 import java.util.HashMap;
+import android.content.Context;
 import android.util.Log;
 import android.text.TextUtils;
 import java.util.ArrayList;
@@ -107,14 +108,29 @@ public class TvScanConfig {
         }
     }
 
+    /**
+     * Load the country capability table persisted by an earlier run, or read and persist it.
+     * Call once early, e.g. when the setup wizard starts.
+     */
+    public static void loadCountryCapabilities(Context context) {
+        TvControlManager.getInstance().getCountryCapabilities(context);
+    }
+
+    // the whole capability table is read once, the getters below are then answered from memory
+    private static TvControlManager tvControlManager() {
+        TvControlManager manager = TvControlManager.getInstance();
+        manager.getCountryCapabilities();
+        return manager;
+    }
+
     public static ArrayList<String> GetTVSupportCountries() {
-        String countryStrings = TvControlManager.getInstance().GetTVSupportCountries();
+        String countryStrings = tvControlManager().GetTVSupportCountries();
 
         return stringToWordsList(countryStrings, TV_COUNTRY);
     }
 
     public static String getTvDefaultCountry() {
-        String country = TvControlManager.getInstance().getTvDefaultCountry();
+        String country = tvControlManager().getTvDefaultCountry();
         if (country.isEmpty()) {
             Log.e(TAG, "get default country is null in *.conf, use default value China");
             country = TV_COUNTRY.get(TV_COUNTRY_CHINA_INDEX);
@@ -123,35 +139,35 @@ public class TvScanConfig {
     }
 
     public static String GetTvCountryNameById(String countryId) {
-        return TvControlManager.getInstance().GetTvCountryNameById(countryId);
+        return tvControlManager().GetTvCountryNameById(countryId);
     }
 
     public static ArrayList<String> GetTvSearchModeList(String countryId) {
-        return stringToWordsList(TvControlManager.getInstance().GetTvSearchMode(countryId), TV_SEARCH_MODE);
+        return stringToWordsList(tvControlManager().GetTvSearchMode(countryId), TV_SEARCH_MODE);
     }
 
     public static boolean GetTvDtvSupport(String countryId) {
-        return TvControlManager.getInstance().GetTvDtvSupport(countryId);
+        return tvControlManager().GetTvDtvSupport(countryId);
     }
 
     public static ArrayList<String> GetTvDtvSystemList(String countryId) {
-        return stringToWordsList(TvControlManager.getInstance().GetTvDtvSystem(countryId), TV_SEARCH_TYPE);
+        return stringToWordsList(tvControlManager().GetTvDtvSystem(countryId), TV_SEARCH_TYPE);
     }
 
     public static boolean GetTvAtvSupport(String countryId) {
-        return TvControlManager.getInstance().GetTvAtvSupport(countryId);
+        return tvControlManager().GetTvAtvSupport(countryId);
     }
 
     public static ArrayList<String> GetTvAtvColorSystemList(String countryId) {
-        return stringToWordsList(TvControlManager.getInstance().GetTvAtvColorSystem(countryId), TV_COLOR_SYS);
+        return stringToWordsList(tvControlManager().GetTvAtvColorSystem(countryId), TV_COLOR_SYS);
     }
 
     public static ArrayList<String> GetTvAtvSoundSystemList(String countryId) {
-        return stringToWordsList(TvControlManager.getInstance().GetTvAtvSoundSystem(countryId), TV_SOUND_SYS);
+        return stringToWordsList(tvControlManager().GetTvAtvSoundSystem(countryId), TV_SOUND_SYS);
     }
 
     public static int GetTvAtvMinMaxFreq(String countryId, int param[]) {
-        String strings = TvControlManager.getInstance().GetTvAtvMinMaxFreq(countryId);
+        String strings = tvControlManager().GetTvAtvMinMaxFreq(countryId);
         String[] supportList = strings.split(",");
         if (supportList.length != 2) {
             Log.e(TAG, "get atv search freq param length= " + supportList.length + "error, use default freq [" + TV_MIN_MAX_FREQ.get(0) + ", " + TV_MIN_MAX_FREQ.get(1) + "]");
@@ -165,6 +181,6 @@ public class TvScanConfig {
     }
 
     public static int GetTvAtvStepScan(String country_code) {
-        return TvControlManager.getInstance().GetTvAtvStepScan(country_code) ? TV_ATV_AUTO_ALL_BAND : TV_ATV_AUTO_FREQ_LIST;
+        return tvControlManager().GetTvAtvStepScan(country_code) ? TV_ATV_AUTO_ALL_BAND : TV_ATV_AUTO_FREQ_LIST;
     }
 }
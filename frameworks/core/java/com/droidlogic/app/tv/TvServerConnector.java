@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import android.os.RemoteException;
+
+import vendor.amlogic.hardware.tvserver.V1_0.ITvServer;
+
+/**
+ * Supplies the ITvServer backend TvControlManager talks to.
+ * The default connector looks up the tvserver HIDL service; tests install
+ * a simulated backend instead.
+ */
+public interface TvServerConnector {
+    TvServerConnector HIDL = new TvServerConnector() {
+        @Override
+        public ITvServer connect() throws RemoteException {
+            return ITvServer.getService();
+        }
+    };
+
+    /**
+     * @return the backend, throws NoSuchElementException if it is not available
+     */
+    ITvServer connect() throws RemoteException;
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import vendor.amlogic.hardware.tvserver.V1_0.ITvServer;
+
+/**
+ * Bridges a tvserver outage. While the service is gone, TvControlManager talks
+ * to a placeholder ITvServer: calls fail with RemoteException, except idempotent
+ * setters, which are kept (latest value per target) in a bounded queue. A
+ * background thread reconnects with exponential backoff, replays the queue on
+ * the new service and then hands it back to TvControlManager.
+ */
+class TvServerReconnector {
+    private static final String TAG = "TvServerReconnector";
+
+    private static final int MAX_PENDING_CALLS = 64;
+    private static final long INITIAL_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 5000;
+
+    // setter name -> number of leading arguments naming the target, the rest is the value
+    private static final Map<String, Integer> REPLAYABLE_SETTERS = new HashMap<String, Integer>();
+    static {
+        REPLAYABLE_SETTERS.put("setTvCountry", 0);
+        REPLAYABLE_SETTERS.put("setCurrentLanguage", 0);
+        REPLAYABLE_SETTERS.put("setMiscCfg", 1);
+        REPLAYABLE_SETTERS.put("setHdmiEdidVersion", 1);
+        REPLAYABLE_SETTERS.put("saveHdmiEdidVersion", 1);
+        REPLAYABLE_SETTERS.put("setHdmiColorRangeMode", 0);
+        REPLAYABLE_SETTERS.put("setAudioOutmode", 0);
+        REPLAYABLE_SETTERS.put("setAmAudioPreMute", 0);
+        REPLAYABLE_SETTERS.put("setDvbTextCoding", 0);
+        REPLAYABLE_SETTERS.put("SetVRREnable", 0);
+        REPLAYABLE_SETTERS.put("setBlackoutEnable", 0);
+        REPLAYABLE_SETTERS.put("setLcdEnable", 0);
+        REPLAYABLE_SETTERS.put("setScreenColorForSignalChange", 0);
+        REPLAYABLE_SETTERS.put("setSameSourceEnable", 0);
+    }
+
+    public interface Connector {
+        /**
+         * Get the service, link to its death and register the callback.
+         */
+        ITvServer connect() throws RemoteException;
+    }
+
+    public interface Listener {
+        void onReconnected(ITvServer proxy);
+    }
+
+    private static final class PendingCall {
+        final String key;
+        final Method method;
+        final Object[] args;
+
+        PendingCall(String key, Method method, Object[] args) {
+            this.key = key;
+            this.method = method;
+            this.args = args;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Connector mConnector;
+    private final Listener mListener;
+    private final ITvServer mPlaceholder;
+    private final LinkedHashMap<String, PendingCall> mPending = new LinkedHashMap<String, PendingCall>();
+    private ITvServer mLive = null;
+    private Handler mHandler = null;
+    private boolean mReconnecting = false;
+    // bumped on every death, an attempt only goes live if no death happened since it started
+    private long mEpoch = 0;
+    private long mBackoffMs = INITIAL_BACKOFF_MS;
+    private long mLostTime = 0;
+
+    private int mReconnectCount = 0;
+    private int mFailedAttemptCount = 0;
+    private long mDroppedCallCount = 0;
+    private long mLastLatencyMs = 0;
+    private long mMaxLatencyMs = 0;
+
+    private final Runnable mAttemptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            attempt();
+        }
+    };
+
+    public TvServerReconnector(Connector connector, Listener listener) {
+        mConnector = connector;
+        mListener = listener;
+        mPlaceholder = (ITvServer) Proxy.newProxyInstance(ITvServer.class.getClassLoader(),
+                new Class<?>[] {ITvServer.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return onPlaceholderCall(method, args);
+                    }
+                });
+    }
+
+    /**
+     * The service is gone, start reconnecting.
+     * @return the placeholder to use until onReconnected()
+     */
+    public ITvServer onServiceLost() {
+        synchronized (mLock) {
+            mLive = null;
+            mEpoch++;
+            if (!mReconnecting) {
+                mReconnecting = true;
+                mLostTime = SystemClock.elapsedRealtime();
+                mBackoffMs = INITIAL_BACKOFF_MS;
+                if (mHandler == null) {
+                    HandlerThread thread = new HandlerThread(TAG);
+                    thread.start();
+                    mHandler = new Handler(thread.getLooper());
+                }
+                mHandler.post(mAttemptRunnable);
+            }
+        }
+        return mPlaceholder;
+    }
+
+    private Object onPlaceholderCall(Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (method.getDeclaringClass() == Object.class) {
+            switch (name) {
+                case "hashCode":
+                    return System.identityHashCode(mPlaceholder);
+                case "equals":
+                    return args[0] == mPlaceholder;
+                default:
+                    return TAG;
+            }
+        }
+
+        ITvServer live;
+        synchronized (mLock) {
+            live = mLive;
+            if (live == null) {
+                Integer keyArgs = REPLAYABLE_SETTERS.get(name);
+                if (keyArgs == null) {
+                    throw new RemoteException("tvserver not connected, drop " + name);
+                }
+                queueLocked(name, keyArgs, method, args);
+                return (method.getReturnType() == int.class) ? Integer.valueOf(0) : null;
+            }
+        }
+        // reconnected meanwhile, the caller only read the placeholder before the switch
+        try {
+            return method.invoke(live, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void queueLocked(String name, int keyArgs, Method method, Object[] args) {
+        StringBuilder key = new StringBuilder(name);
+        for (int i = 0; i < keyArgs && args != null && i < args.length; i++) {
+            key.append('|').append(args[i]);
+        }
+        String k = key.toString();
+        // re-insert so the latest value replays in call order
+        if (mPending.remove(k) == null && mPending.size() >= MAX_PENDING_CALLS) {
+            Iterator<String> it = mPending.keySet().iterator();
+            it.next();
+            it.remove();
+            mDroppedCallCount++;
+        }
+        mPending.put(k, new PendingCall(k, method, (args == null) ? null : args.clone()));
+    }
+
+    private void attempt() {
+        long epoch;
+        synchronized (mLock) {
+            epoch = mEpoch;
+        }
+        ITvServer proxy = null;
+        try {
+            proxy = mConnector.connect();
+        } catch (NoSuchElementException e) {
+            Log.w(TAG, "tvserver HIDL service not found yet");
+        } catch (RemoteException e) {
+            Log.w(TAG, "tvserver HIDL service not responding:" + e);
+        }
+
+        if (proxy == null) {
+            synchronized (mLock) {
+                mFailedAttemptCount++;
+                mHandler.postDelayed(mAttemptRunnable, mBackoffMs);
+                mBackoffMs = Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+            }
+            return;
+        }
+
+        // replay before going live so a queued value never overwrites a newer call
+        long latency;
+        while (true) {
+            PendingCall[] calls;
+            synchronized (mLock) {
+                if (epoch != mEpoch) {
+                    // the new service died while linking or replaying, start over
+                    Log.w(TAG, "tvserver died during reconnect, retry");
+                    mFailedAttemptCount++;
+                    mHandler.post(mAttemptRunnable);
+                    return;
+                }
+                if (mPending.isEmpty()) {
+                    mLive = proxy;
+                    mReconnecting = false;
+                    mReconnectCount++;
+                    latency = SystemClock.elapsedRealtime() - mLostTime;
+                    mLastLatencyMs = latency;
+                    mMaxLatencyMs = Math.max(mMaxLatencyMs, latency);
+                    break;
+                }
+                calls = mPending.values().toArray(new PendingCall[mPending.size()]);
+                mPending.clear();
+            }
+            for (int i = 0; i < calls.length; i++) {
+                PendingCall call = calls[i];
+                try {
+                    call.method.invoke(proxy, call.args);
+                } catch (InvocationTargetException e) {
+                    Log.e(TAG, "replay " + call.method.getName() + ":" + e.getCause());
+                    if (e.getCause() instanceof RemoteException) {
+                        synchronized (mLock) {
+                            if (epoch != mEpoch) {
+                                requeueLocked(calls, i);
+                                break;
+                            }
+                        }
+                    }
+                } catch (IllegalAccessException e) {
+                    Log.e(TAG, "replay " + call.method.getName() + ":" + e);
+                }
+            }
+        }
+        Log.i(TAG, "reconnected to tvserver after " + latency + "ms");
+        mListener.onReconnected(proxy);
+    }
+
+    /**
+     * Put back calls from index from on that a dead service did not take, unless
+     * a newer value for the same target was queued meanwhile.
+     */
+    private void requeueLocked(PendingCall[] calls, int from) {
+        LinkedHashMap<String, PendingCall> newer = new LinkedHashMap<String, PendingCall>(mPending);
+        mPending.clear();
+        for (int i = from; i < calls.length; i++) {
+            if (!newer.containsKey(calls[i].key)) {
+                mPending.put(calls[i].key, calls[i]);
+            }
+        }
+        mPending.putAll(newer);
+        while (mPending.size() > MAX_PENDING_CALLS) {
+            Iterator<String> it = mPending.keySet().iterator();
+            it.next();
+            it.remove();
+            mDroppedCallCount++;
+        }
+    }
+
+    public boolean isReconnecting() {
+        synchronized (mLock) {
+            return mReconnecting;
+        }
+    }
+
+    public int getPendingCallCount() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    public long getDroppedCallCount() {
+        synchronized (mLock) {
+            return mDroppedCallCount;
+        }
+    }
+
+    public int getReconnectCount() {
+        synchronized (mLock) {
+            return mReconnectCount;
+        }
+    }
+
+    public int getFailedAttemptCount() {
+        synchronized (mLock) {
+            return mFailedAttemptCount;
+        }
+    }
+
+    public long getLastLatencyMs() {
+        synchronized (mLock) {
+            return mLastLatencyMs;
+        }
+    }
+
+    public long getMaxLatencyMs() {
+        synchronized (mLock) {
+            return mMaxLatencyMs;
+        }
+    }
+}
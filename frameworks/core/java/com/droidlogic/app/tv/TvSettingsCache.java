@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import android.util.SparseIntArray;
+
+/**
+ * Write-through cache of integer settings read from tvserver over the HIDL
+ * proxy, keyed by a per-setting id. Values are stored when a setter succeeds
+ * or a getter returns from tvserver, and dropped on invalidate(). Disabled by
+ * default, a disabled cache always misses without counting.
+ */
+class TvSettingsCache {
+    public static final int MISS = Integer.MIN_VALUE;
+
+    private final SparseIntArray mValues = new SparseIntArray();
+    private boolean mEnabled = false;
+    private long mGeneration = 0;
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+
+    public synchronized boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public synchronized void setEnabled(boolean enable) {
+        mEnabled = enable;
+        if (!enable) {
+            invalidate();
+        }
+    }
+
+    /**
+     * @return the cached value, or MISS if the key is not cached
+     */
+    public synchronized int get(int key) {
+        if (!mEnabled) {
+            return MISS;
+        }
+        int index = mValues.indexOfKey(key);
+        if (index < 0) {
+            mMissCount++;
+            return MISS;
+        }
+        mHitCount++;
+        return mValues.valueAt(index);
+    }
+
+    /**
+     * Generation to pass to fill() after a miss, so a value read from tvserver
+     * does not overwrite a setter or invalidation that raced with the read.
+     */
+    public synchronized long generation() {
+        return mGeneration;
+    }
+
+    public synchronized void fill(int key, int value, long generation) {
+        if (mEnabled && generation == mGeneration) {
+            mValues.put(key, value);
+        }
+    }
+
+    public synchronized void put(int key, int value) {
+        mGeneration++;
+        if (mEnabled) {
+            mValues.put(key, value);
+        }
+    }
+
+    public synchronized void remove(int key) {
+        mGeneration++;
+        mValues.delete(key);
+    }
+
+    public synchronized void invalidate() {
+        mGeneration++;
+        mValues.clear();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+}
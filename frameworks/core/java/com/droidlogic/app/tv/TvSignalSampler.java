@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+/**
+ * Shared poller of the dtv signal quality. One background thread samples
+ * the supported metrics while at least one listener is registered, into a
+ * fixed-size ring of primitive arrays. The rate is fast while any caller holds
+ * fast mode (e.g. an antenna alignment screen) and slow otherwise.
+ * Listeners are called on the sampler thread after every recorded sample;
+ * a failed read is counted as an error and leaves the history untouched.
+ * Only the strength reaches tvserver over HIDL; DtvGetSignalSNR and
+ * DtvGetSignalBER still use the abandoned sendCmd path, so those metrics are
+ * neither polled nor stored and report no samples.
+ */
+public class TvSignalSampler {
+    private static final String TAG = "TvSignalSampler";
+
+    public static final int METRIC_STRENGTH = 0;
+    public static final int METRIC_SNR      = 1;
+    public static final int METRIC_BER      = 2;
+
+    private static final int CAPACITY = 256;
+    private static final long DEFAULT_FAST_INTERVAL_MS = 200;
+    private static final long DEFAULT_SLOW_INTERVAL_MS = 2000;
+
+    public interface Listener {
+        void onSample(TvSignalSampler sampler);
+    }
+
+    public static class Stats {
+        public int count;
+        public float average;
+        public int min;
+        public int max;
+        // least-squares slope in units per second, positive while the signal improves
+        public float trend;
+    }
+
+    private final TvControlManager mTvControlManager;
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // ring buffer, guarded by this
+    private final long[] mTimes = new long[CAPACITY];
+    private final int[] mStrength = new int[CAPACITY];
+    private int mHead = 0;
+    private int mCount = 0;
+    private long mErrorCount = 0;
+
+    private int mFastModeCount = 0;
+    private long mFastIntervalMs = DEFAULT_FAST_INTERVAL_MS;
+    private long mSlowIntervalMs = DEFAULT_SLOW_INTERVAL_MS;
+    private boolean mRunning = false;
+    // bumped by every reschedule, a sample of an older chain neither reports nor re-posts
+    private long mGeneration = 0;
+
+    private final class SampleTask implements Runnable {
+        final long generation;
+
+        SampleTask(long generation) {
+            this.generation = generation;
+        }
+
+        @Override
+        public void run() {
+            sample(this);
+        }
+    }
+
+    public TvSignalSampler(TvControlManager manager) {
+        mTvControlManager = manager;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Polling runs while at least one listener is registered.
+     */
+    public void addListener(Listener l) {
+        if (mListeners.addIfAbsent(l)) {
+            updateRunning();
+        }
+    }
+
+    public void removeListener(Listener l) {
+        if (mListeners.remove(l)) {
+            updateRunning();
+        }
+    }
+
+    /**
+     * Poll at the fast rate until the matching releaseFastMode().
+     */
+    public void acquireFastMode() {
+        synchronized (this) {
+            mFastModeCount++;
+        }
+        reschedule();
+    }
+
+    public void releaseFastMode() {
+        synchronized (this) {
+            if (mFastModeCount > 0) {
+                mFastModeCount--;
+            }
+        }
+    }
+
+    public synchronized void setIntervals(long fastMs, long slowMs) {
+        mFastIntervalMs = Math.max(fastMs, 10);
+        mSlowIntervalMs = Math.max(slowMs, mFastIntervalMs);
+    }
+
+    private void updateRunning() {
+        synchronized (this) {
+            boolean run = !mListeners.isEmpty();
+            if (run == mRunning) {
+                return;
+            }
+            mRunning = run;
+        }
+        reschedule();
+    }
+
+    /**
+     * @return false for metrics tvserver does not provide over HIDL
+     */
+    public static boolean isSupported(int metric) {
+        return metric == METRIC_STRENGTH;
+    }
+
+    private synchronized void reschedule() {
+        mGeneration++;
+        mHandler.removeCallbacksAndMessages(null);
+        if (mRunning) {
+            mHandler.post(new SampleTask(mGeneration));
+        }
+    }
+
+    private void sample(SampleTask task) {
+        synchronized (this) {
+            if (task.generation != mGeneration) {
+                return;
+            }
+        }
+        int strength = mTvControlManager.DtvGetSignalStrength();
+        boolean valid = strength >= 0;
+        long interval;
+        synchronized (this) {
+            if (task.generation != mGeneration) {
+                // rescheduled during the call, the new chain takes over
+                return;
+            }
+            if (valid) {
+                mTimes[mHead] = SystemClock.elapsedRealtime();
+                mStrength[mHead] = strength;
+                mHead = (mHead + 1) % CAPACITY;
+                if (mCount < CAPACITY) {
+                    mCount++;
+                }
+            } else {
+                // failed read, keep it out of the history and the stats
+                mErrorCount++;
+            }
+            if (!mRunning) {
+                return;
+            }
+            interval = (mFastModeCount > 0) ? mFastIntervalMs : mSlowIntervalMs;
+        }
+        if (valid) {
+            for (Listener l : mListeners) {
+                l.onSample(this);
+            }
+        }
+        synchronized (this) {
+            if (task.generation == mGeneration && mRunning) {
+                mHandler.postDelayed(task, interval);
+            }
+        }
+    }
+
+    /**
+     * @return latest value of the metric, -1 if nothing was sampled yet or it is not supported
+     */
+    public synchronized int getLatest(int metric) {
+        if (mCount == 0 || !isSupported(metric)) {
+            return -1;
+        }
+        return mStrength[(mHead + CAPACITY - 1) % CAPACITY];
+    }
+
+    /**
+     * Copy up to out.length latest samples of the metric, oldest first.
+     * @return number of samples copied
+     */
+    public synchronized int getHistory(int metric, int[] out) {
+        int n = isSupported(metric) ? Math.min(out.length, mCount) : 0;
+        int start = (mHead + CAPACITY - n) % CAPACITY;
+        for (int i = 0; i < n; i++) {
+            out[i] = mStrength[(start + i) % CAPACITY];
+        }
+        return n;
+    }
+
+    /**
+     * @return number of polls whose read failed, they are not in the history
+     */
+    public synchronized long getErrorCount() {
+        return mErrorCount;
+    }
+
+    /**
+     * Statistics of the metric over the samples taken in the last windowMs.
+     * @return out, with count 0 if there is no sample in the window
+     */
+    public synchronized Stats getStats(int metric, long windowMs, Stats out) {
+        long now = SystemClock.elapsedRealtime();
+        int samples = isSupported(metric) ? mCount : 0;
+        int count = 0;
+        long sum = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        double sumT = 0, sumV = 0, sumTT = 0, sumTV = 0;
+        for (int i = 1; i <= samples; i++) {
+            int index = (mHead + CAPACITY - i) % CAPACITY;
+            long age = now - mTimes[index];
+            if (age > windowMs) {
+                break;
+            }
+            int v = mStrength[index];
+            double t = -age / 1000.0;
+            count++;
+            sum += v;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            sumT += t;
+            sumV += v;
+            sumTT += t * t;
+            sumTV += t * v;
+        }
+        out.count = count;
+        out.average = (count == 0) ? 0 : (float) sum / count;
+        out.min = (count == 0) ? 0 : min;
+        out.max = (count == 0) ? 0 : max;
+        double denom = count * sumTT - sumT * sumT;
+        out.trend = (count < 2 || denom == 0) ? 0 : (float) ((count * sumTV - sumT * sumV) / denom);
+        return out;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * Coalescing writer for slider-driven settings. Each control keeps only the
+ * latest value set by the UI and sends it to tvserver from a background
+ * thread at no more than the configured rate. Releasing the slider sends the
+ * final value at once and persists it with a single save call. Only a value
+ * the setter accepted (returned 0) during the current drag is persisted;
+ * failed calls are counted.
+ */
+public class TvSliderWriter {
+    private static final String TAG = "TvSliderWriter";
+    private static final int DEFAULT_MAX_RATE_HZ = 20;
+
+    public interface IntSetter {
+        /**
+         * @return 0 on success
+         */
+        int apply(int value);
+    }
+
+    private final class Control implements Runnable {
+        final IntSetter setter;
+        final IntSetter saver;
+        int pending;
+        boolean hasPending = false;
+        boolean scheduled = false;
+        boolean released = false;
+        // between the first set() of a drag and its release
+        boolean dragging = false;
+        int lastValue;
+        boolean hasValue = false;
+        long lastSendTime = 0;
+
+        Control(IntSetter setter, IntSetter saver) {
+            this.setter = setter;
+            this.saver = saver;
+        }
+
+        @Override
+        public void run() {
+            int value;
+            boolean send;
+            boolean save;
+            synchronized (TvSliderWriter.this) {
+                scheduled = false;
+                send = hasPending;
+                value = pending;
+                hasPending = false;
+                save = released && saver != null;
+                released = false;
+                if (send) {
+                    lastSendTime = SystemClock.uptimeMillis();
+                }
+            }
+            if (send) {
+                int ret = setter.apply(value);
+                synchronized (TvSliderWriter.this) {
+                    if (ret == 0) {
+                        lastValue = value;
+                        hasValue = true;
+                    } else {
+                        mFailedCount++;
+                    }
+                }
+            }
+            if (save) {
+                synchronized (TvSliderWriter.this) {
+                    // persist the last value tvserver took, nothing if it took none
+                    save = hasValue;
+                    value = lastValue;
+                }
+                if (save && saver.apply(value) != 0) {
+                    Log.w(TAG, "save " + value + " failed");
+                    synchronized (TvSliderWriter.this) {
+                        mFailedCount++;
+                    }
+                }
+            }
+        }
+    }
+
+    private final SparseArray<Control> mControls = new SparseArray<Control>();
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private long mMinIntervalMs = 1000 / DEFAULT_MAX_RATE_HZ;
+    private long mSkippedCount = 0;
+    private long mFailedCount = 0;
+
+    TvSliderWriter() {
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * @param saver persists the final value on release, null if the control has no save call
+     */
+    public synchronized void register(int control, IntSetter setter, IntSetter saver) {
+        mControls.put(control, new Control(setter, saver));
+    }
+
+    public synchronized void setMaxRate(int hz) {
+        mMinIntervalMs = (hz > 0) ? 1000 / hz : 0;
+    }
+
+    /**
+     * Latest value wins, never blocks.
+     * @return false if the control is unknown
+     */
+    public synchronized boolean set(int control, int value) {
+        Control c = mControls.get(control);
+        if (c == null) {
+            return false;
+        }
+        if (!c.dragging) {
+            // a new drag, never save the value of the previous one
+            c.dragging = true;
+            c.hasValue = false;
+        }
+        if (c.hasPending) {
+            mSkippedCount++;
+        }
+        c.pending = value;
+        c.hasPending = true;
+        if (!c.scheduled) {
+            c.scheduled = true;
+            long delay = c.lastSendTime + mMinIntervalMs - SystemClock.uptimeMillis();
+            mHandler.postDelayed(c, Math.max(delay, 0));
+        }
+        return true;
+    }
+
+    /**
+     * Send the pending value now, then save the final value once.
+     * @return false if the control is unknown
+     */
+    public synchronized boolean release(int control) {
+        Control c = mControls.get(control);
+        if (c == null) {
+            return false;
+        }
+        if (!c.dragging) {
+            // released without a drag, the value of an earlier drag is not saved again
+            c.hasValue = false;
+        }
+        c.released = true;
+        c.dragging = false;
+        mHandler.removeCallbacks(c);
+        c.scheduled = true;
+        mHandler.post(c);
+        return true;
+    }
+
+    /**
+     * @return number of values replaced before they were sent
+     */
+    public synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * @return number of set and save calls that did not return 0
+     */
+    public synchronized long getFailedCount() {
+        return mFailedCount;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.util.SparseArray;
+
+/**
+ * Memory mirror of the SSM storage. Reads are served from pages loaded in
+ * whole blocks; writes land in the mirror and are remembered as merged dirty
+ * ranges, so flush() writes each contiguous range back with one block call.
+ * Only [0, size) is mirrored: the last page is loaded short and accesses past
+ * the end fail without reaching the backend.
+ * Not thread safe, callers hold the ssm lock.
+ */
+class TvSsmMirror {
+    static final int PAGE_SIZE = 256;
+    // largest block moved in one backend call
+    static final int MAX_BLOCK_SIZE = 4096;
+
+    interface Backend {
+        boolean read(int offset, byte[] buf, int bufOffset, int len);
+        boolean write(int offset, byte[] buf, int bufOffset, int len);
+    }
+
+    private final Backend mBackend;
+    private final int mSize;
+    private final SparseArray<byte[]> mPages = new SparseArray<byte[]>();
+    // dirty start -> end (exclusive), ranges never overlap or touch
+    private final TreeMap<Integer, Integer> mDirty = new TreeMap<Integer, Integer>();
+    private long mReadBytes = 0;
+    private long mLoadedBytes = 0;
+
+    TvSsmMirror(Backend backend, int size) {
+        mBackend = backend;
+        mSize = Math.max(size, 0);
+    }
+
+    int getSize() {
+        return mSize;
+    }
+
+    private boolean inRange(int offset, int len) {
+        return offset >= 0 && len <= mSize && offset <= mSize - len;
+    }
+
+    /**
+     * Load every missing page of [offset, offset + len), contiguous missing pages in one call.
+     */
+    private boolean loadPages(int offset, int len) {
+        int first = offset / PAGE_SIZE;
+        int last = (offset + len - 1) / PAGE_SIZE;
+        int page = first;
+        while (page <= last) {
+            if (mPages.get(page) != null) {
+                page++;
+                continue;
+            }
+            int runEnd = page;
+            while (runEnd + 1 <= last && mPages.get(runEnd + 1) == null
+                    && (runEnd + 2 - page) * PAGE_SIZE <= MAX_BLOCK_SIZE) {
+                runEnd++;
+            }
+            int count = runEnd - page + 1;
+            // the last page of ssm may be short, the rest of it is never accessed
+            int length = Math.min(count * PAGE_SIZE, mSize - page * PAGE_SIZE);
+            byte[] block = new byte[count * PAGE_SIZE];
+            if (!mBackend.read(page * PAGE_SIZE, block, 0, length)) {
+                return false;
+            }
+            mLoadedBytes += length;
+            for (int i = 0; i < count; i++) {
+                byte[] data = new byte[PAGE_SIZE];
+                System.arraycopy(block, i * PAGE_SIZE, data, 0, PAGE_SIZE);
+                mPages.put(page + i, data);
+            }
+            page = runEnd + 1;
+        }
+        return true;
+    }
+
+    public boolean read(int offset, byte[] buf, int bufOffset, int len) {
+        if (len <= 0) {
+            return true;
+        }
+        if (!inRange(offset, len) || !loadPages(offset, len)) {
+            return false;
+        }
+        copy(offset, buf, bufOffset, len, false);
+        mReadBytes += len;
+        return true;
+    }
+
+    public boolean write(int offset, byte[] buf, int bufOffset, int len) {
+        if (len <= 0) {
+            return true;
+        }
+        // partially written pages must hold the current data around the write
+        if (!inRange(offset, len) || !loadPages(offset, len)) {
+            return false;
+        }
+        copy(offset, buf, bufOffset, len, true);
+        markDirty(offset, offset + len);
+        return true;
+    }
+
+    private void copy(int offset, byte[] buf, int bufOffset, int len, boolean toMirror) {
+        while (len > 0) {
+            byte[] page = mPages.get(offset / PAGE_SIZE);
+            int pos = offset % PAGE_SIZE;
+            int n = Math.min(len, PAGE_SIZE - pos);
+            if (toMirror) {
+                System.arraycopy(buf, bufOffset, page, pos, n);
+            } else {
+                System.arraycopy(page, pos, buf, bufOffset, n);
+            }
+            offset += n;
+            bufOffset += n;
+            len -= n;
+        }
+    }
+
+    private void markDirty(int start, int end) {
+        Map.Entry<Integer, Integer> before = mDirty.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+            mDirty.remove(before.getKey());
+        }
+        Map.Entry<Integer, Integer> after = mDirty.ceilingEntry(start);
+        while (after != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            mDirty.remove(after.getKey());
+            after = mDirty.ceilingEntry(start);
+        }
+        mDirty.put(start, end);
+    }
+
+    public boolean isDirty() {
+        return !mDirty.isEmpty();
+    }
+
+    public int getDirtyRangeCount() {
+        return mDirty.size();
+    }
+
+    /**
+     * Write every dirty range back, one call per range or MAX_BLOCK_SIZE bytes.
+     * @return true if everything was written, failed ranges stay dirty
+     */
+    public boolean flush() {
+        boolean ok = true;
+        byte[] block = null;
+        TreeMap<Integer, Integer> failed = new TreeMap<Integer, Integer>();
+        for (Map.Entry<Integer, Integer> range : mDirty.entrySet()) {
+            int offset = range.getKey();
+            int end = range.getValue();
+            while (offset < end) {
+                int len = Math.min(end - offset, MAX_BLOCK_SIZE);
+                if (block == null || block.length < len) {
+                    block = new byte[Math.min(end - range.getKey(), MAX_BLOCK_SIZE)];
+                }
+                copy(offset, block, 0, len, false);
+                if (!mBackend.write(offset, block, 0, len)) {
+                    failed.put(offset, end);
+                    ok = false;
+                    break;
+                }
+                offset += len;
+            }
+        }
+        mDirty.clear();
+        mDirty.putAll(failed);
+        return ok;
+    }
+
+    /**
+     * Drop the mirror, unflushed writes are lost.
+     */
+    public void invalidate() {
+        mPages.clear();
+        mDirty.clear();
+    }
+
+    public long getReadBytes() {
+        return mReadBytes;
+    }
+
+    public long getLoadedBytes() {
+        return mLoadedBytes;
+    }
+}
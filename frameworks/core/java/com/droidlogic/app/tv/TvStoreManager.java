@@ -35,6 +35,7 @@ public abstract class TvStoreManager {
 
     private Context mContext;
     private TvDataBaseManager mTvDataBaseManager;
+    private TvChannelRepository mChannelRepository;
 
     private String mInputId;
     private int mInitialDisplayNumber;
@@ -79,6 +80,7 @@ public abstract class TvStoreManager {
         mInitialLcnNumber = mInitialDisplayNumber;
 
         mTvDataBaseManager = new TvDataBaseManager(mContext);
+        mChannelRepository = mTvDataBaseManager.getChannelRepository(mInputId);
         mTvControlManager = TvControlManager.getInstance();
         display_number_start = mInitialDisplayNumber;
         lcn_overflow_start = mInitialLcnNumber;
@@ -517,8 +519,7 @@ public abstract class TvStoreManager {
             if (channels != null)
                 chs = channels;
             else
-                chs = mTvDataBaseManager.getChannelList(mInputId, ChannelInfo.COMMON_PROJECTION,
-                        null, null);
+                chs = mChannelRepository.getChannels();
             for (ChannelInfo c : chs) {
                 if ((c.getNumber() >= display_number_start) && !isChannelInListbyId(c, mChannelsOld)) {
                     display_number_start = c.getNumber() + 1;
@@ -592,8 +593,7 @@ public abstract class TvStoreManager {
             if (channels != null)
                 chs = channels;
             else
-                chs = mTvDataBaseManager.getChannelList(mInputId, ChannelInfo.COMMON_PROJECTION,
-                        null, null);
+                chs = mChannelRepository.getChannels();
             for (ChannelInfo c : chs) {
                 if ((c.getLCN() >= lcn_overflow_start) && !isChannelInListbyId(c, mChannelsOld)) {
                     lcn_overflow_start = c.getLCN() + 1;
@@ -636,24 +636,23 @@ public abstract class TvStoreManager {
                                     ch = c;
                             }
                         } else {
-                            chs = mTvDataBaseManager.getChannelList(mInputId, ChannelInfo.COMMON_PROJECTION,
-                                    ChannelInfo.COLUMN_LCN+"=?",
-                                    new String[]{String.valueOf(lcn_2)});
-                            if (chs.size() > 0) {
-                                if (chs.size() > 1)
-                                    Log.d(TAG, "Warning: found " + chs.size() + "channels with lcn="+lcn_2);
-                                ch = chs.get(0);
-                            }
+                            ch = mChannelRepository.getChannelByLcn(lcn_2);
                         }
                         if ((ch != null) && !isChannelInListbyId(ch, mChannelsOld)) {// do not check those will be deleted.
                             Log.d(TAG, "swap exist lcn["+ch.getLCN()+"] -> ["+ch.getLCN2()+"]");
                             Log.d(TAG, "\t for Service["+ch.getOriginalNetworkId()+":"+ch.getTransportStreamId()+":"+ch.getServiceId()+"]");
 
-                            ch.setLCN(ch.getLCN2());
-                            ch.setLCN1(ch.getLCN2());
-                            ch.setLCN2(lcn_2);
-                            if (channels == null)
-                                mTvDataBaseManager.updateChannelInfo(ch);
+                            if (channels == null) {
+                                // the repository object is shared, change a copy read from the provider
+                                ch = mTvDataBaseManager.getChannelInfo(TvContract.buildChannelUri(ch.getId()));
+                            }
+                            if (ch != null) {
+                                ch.setLCN(ch.getLCN2());
+                                ch.setLCN1(ch.getLCN2());
+                                ch.setLCN2(lcn_2);
+                                if (channels == null)
+                                    mTvDataBaseManager.updateChannelInfo(ch);
+                            }
 
                             swapped = true;
                         }
@@ -678,14 +677,7 @@ public abstract class TvStoreManager {
                             ch = c;
                     }
                 } else {
-                    chs = mTvDataBaseManager.getChannelList(mInputId, ChannelInfo.COMMON_PROJECTION,
-                            ChannelInfo.COLUMN_LCN+"=?",
-                            new String[]{String.valueOf(lcn)});
-                    if (chs.size() > 0) {
-                        if (chs.size() > 1)
-                            Log.d(TAG, "Warning: found " + chs.size() + "channels with lcn="+lcn);
-                        ch = chs.get(0);
-                    }
+                    ch = mChannelRepository.getChannelByLcn(lcn);
                 }
                 if (ch != null) {
                     if (!isChannelInListbyId(ch, mChannelsOld)) {//do not check those will be deleted.
@@ -951,6 +943,8 @@ public abstract class TvStoreManager {
     }
 
     private void sendStoreEvent(TvControlManager.ScannerEvent event) {
+        // handled on mhandlerThread, keep the event alive until dealStoreEvent is done
+        event.retain();
         Message msg = new Message();
         msg.arg1 = event.type;
         msg.obj = event;
@@ -978,10 +972,11 @@ public abstract class TvStoreManager {
 
             if (mLcnInfo == null)
                 mLcnInfo = new ArrayList<TvControlManager.ScannerLcnInfo>();
-            mLcnInfo.add(event.lcnInfo);
-            Log.d(TAG, "Lcn["+event.lcnInfo.netId+":"+event.lcnInfo.tsId+":"+event.lcnInfo.serviceId+"]");
-            Log.d(TAG, "\t[0:"+event.lcnInfo.lcn[0]+":"+event.lcnInfo.visible[0]+":"+event.lcnInfo.valid[0]+"]");
-            Log.d(TAG, "\t[1:"+event.lcnInfo.lcn[1]+":"+event.lcnInfo.visible[1]+":"+event.lcnInfo.valid[1]+"]");
+            TvControlManager.ScannerLcnInfo lcnInfo = event.takeLcnInfo();
+            mLcnInfo.add(lcnInfo);
+            Log.d(TAG, "Lcn["+lcnInfo.netId+":"+lcnInfo.tsId+":"+lcnInfo.serviceId+"]");
+            Log.d(TAG, "\t[0:"+lcnInfo.lcn[0]+":"+lcnInfo.visible[0]+":"+lcnInfo.valid[0]+"]");
+            Log.d(TAG, "\t[1:"+lcnInfo.lcn[1]+":"+lcnInfo.visible[1]+":"+lcnInfo.valid[1]+"]");
             break;
 
         case TvControlManager.EVENT_DTV_PROG_DATA:
@@ -1193,7 +1188,9 @@ public abstract class TvStoreManager {
     private class ChildCallback implements Handler.Callback {
         @Override
         public boolean handleMessage(Message msg) {
-            dealStoreEvent((TvControlManager.ScannerEvent)msg.obj);
+            TvControlManager.ScannerEvent event = (TvControlManager.ScannerEvent)msg.obj;
+            dealStoreEvent(event);
+            event.recycle();
             return false;
         }
     }
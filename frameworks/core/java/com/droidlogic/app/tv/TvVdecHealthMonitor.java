@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+/**
+ * Background collector of video decoder health. Every active vdec is sampled
+ * with getBasicVdecSTatusInfo; rates and decode time percentiles are computed
+ * over a sliding window of samples, and listeners are told whenever the set of
+ * breached thresholds of a vdec changes.
+ */
+public class TvVdecHealthMonitor {
+    private static final String TAG = "TvVdecHealthMonitor";
+
+    public static final int BREACH_LOW_FPS         = 1 << 0;
+    public static final int BREACH_HIGH_DROP_RATE  = 1 << 1;
+    public static final int BREACH_HIGH_ERROR_RATE = 1 << 2;
+    public static final int BREACH_SLOW_DECODE     = 1 << 3;
+
+    private static final int DEFAULT_WINDOW = 10;
+    private static final long DEFAULT_INTERVAL_MS = 1000;
+
+    public interface Listener {
+        /**
+         * Called on the monitor thread.
+         * @param breaches BREACH_* flags now set, 0 when the vdec is healthy again
+         */
+        void onHealthChanged(Health health, int breaches);
+    }
+
+    public static class Health {
+        public int vdecId;
+        // samples in the window
+        public int sampleCount;
+        public float fps;
+        // dropped frames over decoded plus dropped frames
+        public float dropRate;
+        // error frames per second
+        public float errorRate;
+        public int decodeTimeP50;
+        public int decodeTimeP95;
+        public int frameWidth;
+        public int frameHeight;
+    }
+
+    private static final class VdecWindow {
+        final int vdecId;
+        final long[] times;
+        final int[] frames;
+        final int[] drops;
+        final int[] errors;
+        final int[] decodeTimes;
+        int head = 0;
+        int count = 0;
+        int breaches = 0;
+        final Health health = new Health();
+
+        VdecWindow(int vdecId, int size) {
+            this.vdecId = vdecId;
+            times = new long[size];
+            frames = new int[size];
+            drops = new int[size];
+            errors = new int[size];
+            decodeTimes = new int[size];
+            health.vdecId = vdecId;
+        }
+
+        int index(int age) {
+            return (head + times.length - 1 - age) % times.length;
+        }
+    }
+
+    private final TvControlManager mTvControlManager;
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+    private final SparseArray<VdecWindow> mVdecs = new SparseArray<VdecWindow>();
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private int mWindowSize = DEFAULT_WINDOW;
+    private long mIntervalMs = DEFAULT_INTERVAL_MS;
+    private boolean mRunning = false;
+    // bumped by start() and stop(), a sample of an older chain neither reports nor re-posts
+    private long mGeneration = 0;
+    private int[] mSortScratch = new int[DEFAULT_WINDOW];
+
+    private float mMinFps = 0;
+    private float mMaxDropRate = 1;
+    private float mMaxErrorRate = Float.MAX_VALUE;
+    private int mMaxDecodeTimeP95 = Integer.MAX_VALUE;
+
+    private final class SampleTask implements Runnable {
+        final long generation;
+
+        SampleTask(long generation) {
+            this.generation = generation;
+        }
+
+        @Override
+        public void run() {
+            sampleAll(this);
+        }
+    }
+
+    public TvVdecHealthMonitor(TvControlManager manager) {
+        mTvControlManager = manager;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    public void addListener(Listener l) {
+        mListeners.addIfAbsent(l);
+    }
+
+    public void removeListener(Listener l) {
+        mListeners.remove(l);
+    }
+
+    public synchronized void addVdec(int vdecId) {
+        if (mVdecs.get(vdecId) == null) {
+            mVdecs.put(vdecId, new VdecWindow(vdecId, mWindowSize));
+        }
+    }
+
+    public synchronized void removeVdec(int vdecId) {
+        mVdecs.remove(vdecId);
+    }
+
+    /**
+     * Takes effect for vdecs added afterwards.
+     */
+    public synchronized void setWindow(int samples, long intervalMs) {
+        mWindowSize = Math.max(samples, 2);
+        mIntervalMs = Math.max(intervalMs, 100);
+        if (mSortScratch.length < mWindowSize) {
+            mSortScratch = new int[mWindowSize];
+        }
+    }
+
+    /**
+     * @param minFps below it BREACH_LOW_FPS is raised, 0 to disable
+     * @param maxDropRate ratio of dropped frames, 1 to disable
+     * @param maxErrorRate error frames per second
+     * @param maxDecodeTimeP95 95th percentile of decode_time_cost
+     */
+    public synchronized void setThresholds(float minFps, float maxDropRate, float maxErrorRate, int maxDecodeTimeP95) {
+        mMinFps = minFps;
+        mMaxDropRate = maxDropRate;
+        mMaxErrorRate = maxErrorRate;
+        mMaxDecodeTimeP95 = maxDecodeTimeP95;
+    }
+
+    public synchronized void start() {
+        if (!mRunning) {
+            mRunning = true;
+            mGeneration++;
+            mHandler.post(new SampleTask(mGeneration));
+        }
+    }
+
+    public synchronized void stop() {
+        mRunning = false;
+        mGeneration++;
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * @return copy of the latest health of the vdec, null if it is not monitored
+     */
+    public synchronized Health getHealth(int vdecId) {
+        VdecWindow w = mVdecs.get(vdecId);
+        if (w == null) {
+            return null;
+        }
+        Health h = new Health();
+        copy(w.health, h);
+        return h;
+    }
+
+    private static void copy(Health from, Health to) {
+        to.vdecId = from.vdecId;
+        to.sampleCount = from.sampleCount;
+        to.fps = from.fps;
+        to.dropRate = from.dropRate;
+        to.errorRate = from.errorRate;
+        to.decodeTimeP50 = from.decodeTimeP50;
+        to.decodeTimeP95 = from.decodeTimeP95;
+        to.frameWidth = from.frameWidth;
+        to.frameHeight = from.frameHeight;
+    }
+
+    private void sampleAll(SampleTask task) {
+        int[] ids;
+        synchronized (this) {
+            if (task.generation != mGeneration) {
+                return;
+            }
+            ids = new int[mVdecs.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mVdecs.keyAt(i);
+            }
+        }
+        for (int id : ids) {
+            // binder call outside the monitor lock
+            TvControlManager.BasicVdecStatusInfo info = mTvControlManager.getBasicVdecSTatusInfo(id);
+            if (info == null) {
+                continue;
+            }
+            Health report = null;
+            int breaches = 0;
+            synchronized (this) {
+                if (task.generation != mGeneration) {
+                    // stopped, or stopped and restarted, during the call
+                    return;
+                }
+                VdecWindow w = mVdecs.get(id);
+                if (w == null) {
+                    continue;
+                }
+                if (record(w, info)) {
+                    report = new Health();
+                    copy(w.health, report);
+                    breaches = w.breaches;
+                }
+            }
+            if (report != null) {
+                for (Listener l : mListeners) {
+                    l.onHealthChanged(report, breaches);
+                }
+            }
+        }
+        synchronized (this) {
+            if (task.generation == mGeneration && mRunning) {
+                mHandler.postDelayed(task, mIntervalMs);
+            }
+        }
+    }
+
+    /**
+     * @return true if the breached thresholds changed
+     */
+    private boolean record(VdecWindow w, TvControlManager.BasicVdecStatusInfo info) {
+        int size = w.times.length;
+        if (w.count > 0) {
+            int last = w.index(0);
+            // decoder restarted, e.g. channel change: counters start over
+            if (info.frame_count < w.frames[last] || info.drop_frame_count < w.drops[last]
+                    || info.error_frame_count < w.errors[last]) {
+                w.count = 0;
+            }
+        }
+        w.times[w.head] = SystemClock.elapsedRealtime();
+        w.frames[w.head] = info.frame_count;
+        w.drops[w.head] = info.drop_frame_count;
+        w.errors[w.head] = info.error_frame_count;
+        w.decodeTimes[w.head] = info.decode_time_cost;
+        w.head = (w.head + 1) % size;
+        if (w.count < size) {
+            w.count++;
+        }
+
+        Health h = w.health;
+        h.sampleCount = w.count;
+        h.frameWidth = info.frame_width;
+        h.frameHeight = info.frame_height;
+        if (w.count < 2) {
+            return false;
+        }
+        int newest = w.index(0);
+        int oldest = w.index(w.count - 1);
+        float seconds = (w.times[newest] - w.times[oldest]) / 1000f;
+        int frames = w.frames[newest] - w.frames[oldest];
+        int drops = w.drops[newest] - w.drops[oldest];
+        int errors = w.errors[newest] - w.errors[oldest];
+        h.fps = (seconds > 0) ? frames / seconds : 0;
+        h.errorRate = (seconds > 0) ? errors / seconds : 0;
+        h.dropRate = (frames + drops > 0) ? (float) drops / (frames + drops) : 0;
+
+        for (int i = 0; i < w.count; i++) {
+            mSortScratch[i] = w.decodeTimes[w.index(i)];
+        }
+        Arrays.sort(mSortScratch, 0, w.count);
+        h.decodeTimeP50 = mSortScratch[(w.count - 1) * 50 / 100];
+        h.decodeTimeP95 = mSortScratch[(w.count - 1) * 95 / 100];
+
+        int breaches = 0;
+        if (h.fps < mMinFps) {
+            breaches |= BREACH_LOW_FPS;
+        }
+        if (h.dropRate > mMaxDropRate) {
+            breaches |= BREACH_HIGH_DROP_RATE;
+        }
+        if (h.errorRate > mMaxErrorRate) {
+            breaches |= BREACH_HIGH_ERROR_RATE;
+        }
+        if (h.decodeTimeP95 > mMaxDecodeTimeP95) {
+            breaches |= BREACH_SLOW_DECODE;
+        }
+        if (breaches == w.breaches) {
+            return false;
+        }
+        w.breaches = breaches;
+        return true;
+    }
+}
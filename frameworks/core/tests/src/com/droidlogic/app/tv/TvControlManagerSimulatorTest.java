@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Drives TvControlManager through TvServerSimulator instead of the tvserver daemon.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TvControlManagerSimulatorTest {
+    private TvServerSimulator mSimulator;
+    private TvControlManager mManager;
+
+    @Before
+    public void setUp() {
+        mSimulator = new TvServerSimulator();
+        mManager = new TvControlManager(mSimulator);
+    }
+
+    @After
+    public void tearDown() {
+        mManager.quitEventThread();
+    }
+
+    @Test
+    public void getterReturnsSimulatorResult() {
+        mSimulator.setResult("getAudioOutmode", 3);
+
+        assertEquals(3, mManager.GetAudioOutmode());
+        assertEquals(1, mSimulator.getCallCount("getAudioOutmode"));
+    }
+
+    @Test
+    public void settingsCacheServesRepeatedGetter() {
+        mManager.setSettingsCacheEnabled(true);
+        mSimulator.setResult("getAudioOutmode", 2);
+
+        assertEquals(2, mManager.GetAudioOutmode());
+        assertEquals(2, mManager.GetAudioOutmode());
+        assertEquals(1, mSimulator.getCallCount("getAudioOutmode"));
+
+        // a successful setter updates the entry without another getter call
+        assertEquals(0, mManager.SetAudioOutmode(4));
+        assertEquals(4, mManager.GetAudioOutmode());
+        assertEquals(1, mSimulator.getCallCount("getAudioOutmode"));
+    }
+
+    @Test
+    public void sourceConnectEventReachesListener() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<TvControlManager.SourceInput> source =
+                new AtomicReference<TvControlManager.SourceInput>();
+        final AtomicInteger state = new AtomicInteger(-1);
+        mManager.SetSourceConnectListener(new TvControlManager.StatusSourceConnectListener() {
+            @Override
+            public void onSourceConnectChange(TvControlManager.SourceInput input, int connectionState) {
+                source.set(input);
+                state.set(connectionState);
+                latch.countDown();
+            }
+        });
+
+        assertTrue(mSimulator.emitSourceConnect(TvControlManager.SourceInput.HDMI1.toInt(), 1));
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(TvControlManager.SourceInput.HDMI1, source.get());
+        assertEquals(1, state.get());
+    }
+}
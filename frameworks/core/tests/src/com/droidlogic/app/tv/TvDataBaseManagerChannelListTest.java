@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.media.tv.TvContract;
+import android.media.tv.TvContract.Channels;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the TvDataBaseManager channel list queries against an in-memory channels
+ * provider, including the 10k channel list benchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TvDataBaseManagerChannelListTest {
+    private static final String TAG = "TvDataBaseManagerChannelListTest";
+    private static final String INPUT_ID = "com.droidlogic.tvinput/.services.ADTVInputService/HW16";
+    private static final int BENCHMARK_CHANNELS = 10000;
+    private static final int BENCHMARK_RUNS = 5;
+
+    private static final List<String> COLUMNS = Arrays.asList(ChannelInfo.COMMON_PROJECTION);
+
+    private final ArrayList<Object[]> mRows = new ArrayList<Object[]>();
+    private TvDataBaseManager mManager;
+
+    /**
+     * Serves every row in insertion order. The rows added by the tests match the
+     * selection of the list queries, so it is not evaluated.
+     */
+    private final class ChannelsProvider extends MockContentProvider {
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                String sortOrder) {
+            String[] columns = (projection == null) ? ChannelInfo.COMMON_PROJECTION : projection;
+            int[] index = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                index[i] = COLUMNS.indexOf(columns[i]);
+            }
+            MatrixCursor cursor = new MatrixCursor(columns, mRows.size());
+            for (Object[] row : mRows) {
+                Object[] values = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    values[i] = (index[i] < 0) ? null : row[index[i]];
+                }
+                cursor.addRow(values);
+            }
+            return cursor;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(TvContract.AUTHORITY, new ChannelsProvider());
+        Context context = new ContextWrapper(InstrumentationRegistry.getInstrumentation().getTargetContext()) {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+        mManager = new TvDataBaseManager(context);
+    }
+
+    private void addChannel(String type, String signalType, String displayNumber, int frequency) {
+        Map<String, String> data = new HashMap<String, String>();
+        data.put(ChannelInfo.KEY_FREQUENCY, String.valueOf(frequency));
+        data.put(ChannelInfo.KEY_SIGNAL_TYPE, DroidLogicTvUtils.TvString.toString(signalType));
+        data.put(ChannelInfo.KEY_VIDEO_PID, String.valueOf(0x100 + mRows.size() % 16));
+        data.put(ChannelInfo.KEY_VFMT, "0");
+
+        Object[] row = new Object[COLUMNS.size()];
+        row[COLUMNS.indexOf(Channels._ID)] = (long) mRows.size() + 1;
+        row[COLUMNS.indexOf(Channels.COLUMN_PACKAGE_NAME)] = "com.droidlogic.tvinput";
+        row[COLUMNS.indexOf(Channels.COLUMN_INPUT_ID)] = INPUT_ID;
+        row[COLUMNS.indexOf(Channels.COLUMN_TYPE)] = type;
+        row[COLUMNS.indexOf(Channels.COLUMN_SERVICE_TYPE)] = Channels.SERVICE_TYPE_AUDIO_VIDEO;
+        row[COLUMNS.indexOf(Channels.COLUMN_SERVICE_ID)] = mRows.size() + 1;
+        row[COLUMNS.indexOf(Channels.COLUMN_DISPLAY_NUMBER)] = displayNumber;
+        row[COLUMNS.indexOf(Channels.COLUMN_DISPLAY_NAME)] = "Channel " + displayNumber;
+        row[COLUMNS.indexOf(Channels.COLUMN_INTERNAL_PROVIDER_DATA)] = DroidLogicTvUtils.mapToJson(data);
+        row[COLUMNS.indexOf(Channels.COLUMN_BROWSABLE)] = 1;
+        row[COLUMNS.indexOf(Channels.COLUMN_LOCKED)] = 0;
+        mRows.add(row);
+    }
+
+    private static long[] ids(List<ChannelInfo> channels) {
+        long[] ids = new long[channels.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = channels.get(i).getId();
+        }
+        return ids;
+    }
+
+    @Test
+    public void atscAnalogViewHasListOrder() {
+        // scan order, the display numbers do not sort as strings
+        for (int number = 2; number <= 13; number++) {
+            addChannel(Channels.TYPE_NTSC, Channels.TYPE_ATSC_T, String.valueOf(number), 55250000 + number * 6000000);
+        }
+
+        ArrayList<ChannelInfo> list = mManager.getChannelList(INPUT_ID, Channels.SERVICE_TYPE_AUDIO_VIDEO, true, false);
+        ArrayList<ChannelInfo> view = mManager.getChannelListForView(INPUT_ID, Channels.SERVICE_TYPE_AUDIO_VIDEO, true, false);
+
+        assertEquals(12, view.size());
+        assertEquals(Arrays.toString(ids(list)), Arrays.toString(ids(view)));
+        assertEquals("2", view.get(0).getDisplayNumber());
+        assertEquals("10", view.get(8).getDisplayNumber());
+    }
+
+    @Test
+    public void channelListBenchmark() {
+        for (int i = 0; i < BENCHMARK_CHANNELS; i++) {
+            addChannel(Channels.TYPE_ATSC_T, Channels.TYPE_ATSC_T, (2 + i / 100) + "-" + (1 + i % 100),
+                    473000000 + (i / 100) * 6000000);
+        }
+        // warm up both paths once
+        mManager.getChannelList(INPUT_ID, Channels.SERVICE_TYPE_AUDIO_VIDEO, true, false);
+        mManager.getChannelListForView(INPUT_ID, Channels.SERVICE_TYPE_AUDIO_VIDEO, true, false);
+
+        long listNanos = 0;
+        long viewNanos = 0;
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            ArrayList<ChannelInfo> list = mManager.getChannelList(INPUT_ID, Channels.SERVICE_TYPE_AUDIO_VIDEO, true, false);
+            listNanos += SystemClock.elapsedRealtimeNanos() - start;
+            start = SystemClock.elapsedRealtimeNanos();
+            ArrayList<ChannelInfo> view = mManager.getChannelListForView(INPUT_ID, Channels.SERVICE_TYPE_AUDIO_VIDEO, true, false);
+            viewNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            assertEquals(BENCHMARK_CHANNELS, list.size());
+            assertEquals(BENCHMARK_CHANNELS, view.size());
+        }
+        Log.i(TAG, BENCHMARK_CHANNELS + " channels: getChannelList "
+                + listNanos / BENCHMARK_RUNS / 1000 + "us, getChannelListForView "
+                + viewNanos / BENCHMARK_RUNS / 1000 + "us");
+    }
+}
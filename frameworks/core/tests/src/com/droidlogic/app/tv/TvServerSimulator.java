@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2014 Amlogic, Inc. All rights reserved.
+ *
+ * This source code is subject to the terms and conditions defined in the
+ * file 'LICENSE' which is part of this source code package.
+ *
+ * Description: JAVA file
+ */
+
+package com.droidlogic.app.tv;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.os.IHwBinder;
+import android.os.RemoteException;
+
+import static com.droidlogic.app.tv.TvControlCommand.*;
+import vendor.amlogic.hardware.tvserver.V1_0.ITvServer;
+import vendor.amlogic.hardware.tvserver.V1_0.ITvServerCallback;
+import vendor.amlogic.hardware.tvserver.V1_0.TvHidlParcel;
+
+/**
+ * In-process ITvServer backend for running TvControlManager without the
+ * tvserver daemon. Every call is recorded, delayed by the configured latency
+ * and answered from the scripted results, or with a zero/empty default.
+ * Getters returning their values through a result callback get it invoked
+ * with defaults too. Callbacks registered through setCallback() can be
+ * driven with emit(). Part of the device test module, it is not shipped in
+ * the library.
+ *
+ * Usage: TvControlManager.setServerConnector(new TvServerSimulator()) before
+ * the first TvControlManager.getInstance().
+ */
+public class TvServerSimulator implements TvServerConnector {
+    private static final String TAG = "TvServerSimulator";
+
+    public interface CallHandler {
+        /**
+         * Answer a call, HIDL getters with a result callback get it as the last argument.
+         * @return the value returned to the caller
+         */
+        Object onCall(Object[] args) throws RemoteException;
+    }
+
+    public static final class Call {
+        public final String method;
+        public final Object[] args;
+        // System.nanoTime() when the call started and how long it was delayed
+        public final long startTime;
+        public final long latencyNanos;
+
+        Call(String method, Object[] args, long startTime, long latencyNanos) {
+            this.method = method;
+            this.args = args;
+            this.startTime = startTime;
+            this.latencyNanos = latencyNanos;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Map<String, CallHandler> mHandlers = new HashMap<String, CallHandler>();
+    private final Map<String, Long> mLatencyNanos = new HashMap<String, Long>();
+    private final List<Call> mCalls = new ArrayList<Call>();
+    private long mDefaultLatencyNanos = 0;
+    private boolean mRecordCalls = true;
+    private ITvServerCallback mCallback;
+    private IHwBinder.DeathRecipient mDeathRecipient;
+    private long mDeathCookie;
+    private final ITvServer mServer;
+
+    public TvServerSimulator() {
+        mServer = (ITvServer) Proxy.newProxyInstance(ITvServer.class.getClassLoader(),
+                new Class<?>[] {ITvServer.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return onInvoke(method, (args == null) ? new Object[0] : args);
+                    }
+                });
+    }
+
+    @Override
+    public ITvServer connect() {
+        return mServer;
+    }
+
+    public ITvServer getServer() {
+        return mServer;
+    }
+
+    /**
+     * Delay applied to every call without its own latency.
+     */
+    public void setDefaultLatency(long micros) {
+        synchronized (mLock) {
+            mDefaultLatencyNanos = micros * 1000;
+        }
+    }
+
+    public void setLatency(String method, long micros) {
+        synchronized (mLock) {
+            mLatencyNanos.put(method, micros * 1000);
+        }
+    }
+
+    /**
+     * Return a fixed value from every call of method.
+     */
+    public void setResult(String method, final Object result) {
+        setHandler(method, new CallHandler() {
+            @Override
+            public Object onCall(Object[] args) {
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Answer request(resource, json) for one resource, other resources return "".
+     */
+    public void setRequestResult(String resource, String json) {
+        synchronized (mLock) {
+            RequestHandler handler;
+            CallHandler current = mHandlers.get("request");
+            if (current instanceof RequestHandler) {
+                handler = (RequestHandler) current;
+            } else {
+                handler = new RequestHandler();
+                mHandlers.put("request", handler);
+            }
+            handler.mResults.put(resource, json);
+        }
+    }
+
+    public void setHandler(String method, CallHandler handler) {
+        synchronized (mLock) {
+            if (handler == null) {
+                mHandlers.remove(method);
+            } else {
+                mHandlers.put(method, handler);
+            }
+        }
+    }
+
+    public void setRecordCalls(boolean record) {
+        synchronized (mLock) {
+            mRecordCalls = record;
+        }
+    }
+
+    public List<Call> getCalls() {
+        synchronized (mLock) {
+            return new ArrayList<Call>(mCalls);
+        }
+    }
+
+    public int getCallCount(String method) {
+        int count = 0;
+        synchronized (mLock) {
+            for (Call call : mCalls) {
+                if (call.method.equals(method)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public void clearCalls() {
+        synchronized (mLock) {
+            mCalls.clear();
+        }
+    }
+
+    /**
+     * Deliver a parcel to the registered callback on the calling thread,
+     * like a tvserver binder thread would.
+     * @return false if no callback is registered
+     */
+    public boolean emit(TvHidlParcel parcel) {
+        ITvServerCallback callback;
+        synchronized (mLock) {
+            callback = mCallback;
+        }
+        if (callback == null) {
+            return false;
+        }
+        try {
+            callback.notifyCallback(parcel);
+        } catch (RemoteException e) {
+            return false;
+        }
+        return true;
+    }
+
+    public boolean emit(int msgType, int[] bodyInt, String[] bodyString) {
+        return emit(obtainParcel(msgType, bodyInt, bodyString));
+    }
+
+    /**
+     * Emit parcels one after another from a background thread.
+     * @param intervalMs delay between two parcels
+     */
+    public Thread emitScript(final List<TvHidlParcel> script, final long intervalMs) {
+        final List<TvHidlParcel> parcels = new ArrayList<TvHidlParcel>(script);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (TvHidlParcel parcel : parcels) {
+                    emit(parcel);
+                    if (intervalMs > 0) {
+                        try {
+                            Thread.sleep(intervalMs);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }, TAG + "-script");
+        t.start();
+        return t;
+    }
+
+    public boolean emitSignalDetect(int transFmt, int sigFmt, int sigStatus, int frameRate, int isPiP) {
+        return emit(SIGNAL_DETECT_CALLBACK, new int[] {transFmt, sigFmt, sigStatus, frameRate, isPiP}, null);
+    }
+
+    public boolean emitSourceConnect(int source, int connected) {
+        return emit(SOURCE_CONNECT_CALLBACK, new int[] {source, connected}, null);
+    }
+
+    public boolean emitCloseCaption(int[] data, int[] cmd) {
+        int[] body = new int[data.length + cmd.length + 2];
+        body[0] = data.length;
+        System.arraycopy(data, 0, body, 1, data.length);
+        body[data.length + 1] = cmd.length;
+        System.arraycopy(cmd, 0, body, data.length + 2, cmd.length);
+        return emit(CLOSE_CAPTION_CALLBACK, body, null);
+    }
+
+    /**
+     * @param bodyInt scan event body in the layout decoded by TvControlManager
+     */
+    public boolean emitScanEvent(int[] bodyInt, String[] bodyString) {
+        return emit(SCAN_EVENT_CALLBACK, bodyInt, bodyString);
+    }
+
+    public boolean emitEpgEvent(int type, int time, int programID, int channelID) {
+        return emit(EPG_EVENT_CALLBACK, new int[] {type, time, programID, channelID}, null);
+    }
+
+    /**
+     * Report the backend dead to the registered death recipient, as if tvserver crashed.
+     */
+    public void simulateDeath() {
+        IHwBinder.DeathRecipient recipient;
+        long cookie;
+        synchronized (mLock) {
+            recipient = mDeathRecipient;
+            cookie = mDeathCookie;
+            mCallback = null;
+        }
+        if (recipient != null) {
+            recipient.serviceDied(cookie);
+        }
+    }
+
+    public static TvHidlParcel obtainParcel(int msgType, int[] bodyInt, String[] bodyString) {
+        TvHidlParcel parcel = new TvHidlParcel();
+        parcel.msgType = msgType;
+        if (bodyInt != null) {
+            for (int v : bodyInt) {
+                parcel.bodyInt.add(v);
+            }
+        }
+        if (bodyString != null) {
+            Collections.addAll(parcel.bodyString, bodyString);
+        }
+        return parcel;
+    }
+
+    private Object onInvoke(Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (method.getDeclaringClass() == Object.class) {
+            switch (name) {
+                case "hashCode":
+                    return System.identityHashCode(mServer);
+                case "equals":
+                    return args[0] == mServer;
+                default:
+                    return TAG;
+            }
+        }
+
+        CallHandler handler;
+        long latency;
+        synchronized (mLock) {
+            if ("setCallback".equals(name)) {
+                mCallback = (ITvServerCallback) args[0];
+            } else if ("linkToDeath".equals(name)) {
+                mDeathRecipient = (IHwBinder.DeathRecipient) args[0];
+                mDeathCookie = (Long) args[1];
+            } else if ("unlinkToDeath".equals(name)) {
+                mDeathRecipient = null;
+            }
+            handler = mHandlers.get(name);
+            Long l = mLatencyNanos.get(name);
+            latency = (l != null) ? l : mDefaultLatencyNanos;
+        }
+
+        long start = System.nanoTime();
+        if (latency > 0) {
+            long deadline = start + latency;
+            // sleep the bulk, spin the rest so sub-millisecond latencies stay accurate
+            long sleepMs = latency / 1000000 - 1;
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            while (System.nanoTime() < deadline) {
+                Thread.yield();
+            }
+        }
+        synchronized (mLock) {
+            if (mRecordCalls) {
+                mCalls.add(new Call(name, args.clone(), start, latency));
+            }
+        }
+
+        if (handler != null) {
+            return handler.onCall(args);
+        }
+        Method onValues = resultCallbackOf(method, args);
+        if (onValues != null) {
+            Class<?>[] types = onValues.getParameterTypes();
+            Object[] values = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+                values[i] = defaultValue(name, types[i]);
+            }
+            try {
+                onValues.invoke(args[args.length - 1], values);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            return null;
+        }
+        return defaultValue(name, method.getReturnType());
+    }
+
+    /**
+     * HIDL getters with several results are void and take a callback
+     * interface with a single onValues() method as their last argument.
+     * @return that onValues() method, or null for other calls
+     */
+    private static Method resultCallbackOf(Method method, Object[] args) {
+        Class<?>[] types = method.getParameterTypes();
+        if (method.getReturnType() != void.class || types.length == 0 || args[args.length - 1] == null) {
+            return null;
+        }
+        Class<?> last = types[types.length - 1];
+        if (!last.isInterface()) {
+            return null;
+        }
+        for (Method m : last.getMethods()) {
+            if ("onValues".equals(m.getName())) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    private static Object defaultValue(String name, Class<?> type) {
+        if (type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            // linkToDeath, ping and friends report success
+            return Boolean.TRUE;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == float.class) {
+            return 0.0f;
+        }
+        if (type == double.class) {
+            return 0.0d;
+        }
+        if (type == String.class) {
+            return "";
+        }
+        if (type.isAssignableFrom(ArrayList.class)) {
+            return new ArrayList<Object>();
+        }
+        if (type.isInterface()) {
+            return null;
+        }
+        // HIDL structs have a public no-arg constructor
+        try {
+            return type.newInstance();
+        } catch (ReflectiveOperationException e) {
+            // no default for this type, callers see null
+            return null;
+        }
+    }
+
+    private static final class RequestHandler implements CallHandler {
+        final Map<String, String> mResults = new ConcurrentHashMap<String, String>();
+
+        @Override
+        public Object onCall(Object[] args) {
+            String result = mResults.get((String) args[0]);
+            return (result != null) ? result : "";
+        }
+    }
+}